@@ -0,0 +1,26 @@
+import { useEffect, useState } from "react";
+
+/**
+ * Fetches the pairing QR payload from the status-watch resource. The response is keyed by the
+ * pairing id (ETag) and marked cacheable, so re-renders revalidate instead of re-downloading it.
+ */
+export default function useQrPayload(qrUrl: string | undefined) {
+    const [qr, setQr] = useState<string>();
+
+    useEffect(() => {
+        setQr(undefined);
+        if (!qrUrl) return;
+        const controller = new AbortController();
+        fetch(qrUrl, { credentials: "same-origin", signal: controller.signal })
+            .then(res => (res.ok ? res.text() : Promise.reject(new Error(`HTTP ${res.status}`))))
+            .then(setQr)
+            .catch(error => {
+                if (!controller.signal.aborted) {
+                    console.error("Failed to load QR payload", error);
+                }
+            });
+        return () => controller.abort();
+    }, [qrUrl]);
+
+    return qr;
+}
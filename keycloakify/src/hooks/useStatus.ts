@@ -41,7 +41,8 @@ export default ({
 
         let eventSource: EventSource | undefined;
         let stopped = false;
-        let retryDelay = RETRY_BASE_DELAY;
+        let baseDelay = RETRY_BASE_DELAY;
+        let retryDelay = baseDelay;
         let started = false;
         let closeNotified = false;
 
@@ -80,13 +81,18 @@ export default ({
         const scheduleReconnect = () => {
             if (stopped) return;
             const delay = retryDelay;
-            retryDelay = Math.min(retryDelay * 2, RETRY_MAX_DELAY);
+            retryDelay = Math.min(retryDelay * 2, Math.max(RETRY_MAX_DELAY, baseDelay));
             window.setTimeout(() => {
                 if (!stopped) start();
             }, delay);
         };
 
         const handle = (p: StatusResponse | undefined) => {
+            // The server paces polls; reconnect no sooner than it asked for.
+            if (typeof p?.pollAfterMs === "number" && p.pollAfterMs > 0) {
+                baseDelay = Math.max(RETRY_BASE_DELAY, p.pollAfterMs);
+                retryDelay = baseDelay;
+            }
             const st = (p?.status as FlowStatus) ?? "PENDING";
             setStatus(st);
             if (TERMINAL.includes(st)) {
@@ -103,7 +109,7 @@ export default ({
                 started = true;
 
                 source.onopen = () => {
-                    retryDelay = RETRY_BASE_DELAY;
+                    retryDelay = baseDelay;
                 };
 
                 source.onmessage = event => {
@@ -21,7 +21,7 @@ const kcContextExtensionPerPage: KcContextExtensionPerPage = {
         exp: Math.floor(Date.now() / 1000) + 100
     },
     "registerDevice.ftl": {
-        qr: "qrCodeData",
+        qrUrl: "data:text/plain,qrCodeData",
         id: "pairingId123",
         rootAuthSessionId: "rootAuthSessionId123",
         tabId: "tabId123",
@@ -8,6 +8,7 @@ import labels from "./labels.json";
 import QRCode from "react-qr-code";
 import InfoBox from "../../../components/InfoBox/InfoBox";
 import useStatus from "../../../hooks/useStatus";
+import useQrPayload from "../../../hooks/useQrPayload";
 import type { FlowStatus } from "../../../types/FlowStatus";
 import useCopyToClipboard from "../../../hooks/useCopyToClipboard.ts";
 import useExpiryCountdown from "../../../components/progressBar/useExpirtyCountdownParams.ts";
@@ -19,7 +20,7 @@ export default function RegisterDevice(props: Props) {
     const { kcContext, i18n, doUseDefaultCss, Template, classes } = props;
     const { kcClsx } = getKcClsx({ doUseDefaultCss, classes });
 
-    const { url, qr, id, rootAuthSessionId, tabId, watchBase, ttl, exp } = kcContext;
+    const { url, qrUrl, id, rootAuthSessionId, tabId, watchBase, ttl, exp } = kcContext;
 
     const [status, setStatus] = useState<FlowStatus>("PENDING");
     const isApproved = status === "APPROVED";
@@ -29,6 +30,7 @@ export default function RegisterDevice(props: Props) {
     const submittedRef = useRef(false);
 
     useStatus({ setStatus, id, rootAuthSessionId, tabId, watchBase });
+    const qr = useQrPayload(qrUrl);
 
     const { handleCopy } = useCopyToClipboard();
     useEffect(() => {
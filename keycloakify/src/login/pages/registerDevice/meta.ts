@@ -1,5 +1,5 @@
 export type RegisterDeviceMeta = {
-    qr: string;
+    qrUrl: string;
     id: string;
     ttl: number;
     exp: number;
@@ -2,4 +2,5 @@ import { FlowStatus } from "./FlowStatus";
 
 export type StatusResponse = {
     status: FlowStatus;
+    pollAfterMs?: number;
 };
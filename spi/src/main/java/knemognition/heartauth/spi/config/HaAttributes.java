@@ -8,4 +8,7 @@ public final class HaAttributes {
     public static final String STATUS_API_KEY = "ha-orch.api-key";
     public static final String PAIRING_TTL_SECONDS = "ha-pairing.ttl-seconds";
     public static final String CHALLENGE_TTL_SECONDS = "ha-challenge.ttl-seconds";
+    public static final String PENDING_REGISTRATION_MAX_AGE_HOURS = "ha-registration.pending-max-age-hours";
+    public static final String RESEND_BURST = "ha-resend.burst";
+    public static final String RESEND_PER_MINUTE = "ha-resend.per-minute";
 }
@@ -10,4 +10,21 @@ public final class HaConstants {
     public static final String REQUEST_ID_HEADER = "X-Correlation-Id";
     public static final String MDC_ROUTE_ID = "correlationId";
     public static final Duration TRANSPORT_TIMEOUT = Duration.ofSeconds(30);
+    public static final Duration PREFETCH_MAX_AGE = Duration.ofSeconds(60);
+    public static final Duration CREATE_SHARE_WINDOW = Duration.ofSeconds(3);
+    public static final Duration OUTCOME_CACHE_TTL = Duration.ofMinutes(10);
+    public static final Duration NOT_FOUND_CACHE_TTL = Duration.ofSeconds(5);
+    public static final Duration POLL_LOG_SUMMARY_PERIOD = Duration.ofSeconds(60);
+    public static final Duration HEALTH_PROBE_PERIOD = Duration.ofSeconds(5);
+    public static final Duration HEALTH_PROBE_TIMEOUT = Duration.ofSeconds(3);
+    public static final Duration DEVICE_REGISTRATION_CACHE_TTL = Duration.ofMinutes(10);
+    public static final Duration INTERACTIVE_ADMISSION_WAIT = Duration.ofSeconds(5);
+    public static final Duration INTERACTIVE_RETRY_DEADLINE = Duration.ofSeconds(10);
+    /**
+     * Latest an interactive call can return: its last retry may start just before the retry deadline, then
+     * queue for admission and use the full transport timeout.
+     */
+    public static final Duration INTERACTIVE_CALL_DEADLINE = INTERACTIVE_RETRY_DEADLINE
+            .plus(INTERACTIVE_ADMISSION_WAIT)
+            .plus(TRANSPORT_TIMEOUT);
 }
@@ -0,0 +1,63 @@
+package knemognition.heartauth.spi.config;
+
+/**
+ * Challenge/pairing state kept in a single authentication session note.
+ * <p>
+ * Encoded as {@code <version>|<id>|<ttl>|<exp>[|<payload>]} so that a new challenge costs one
+ * note write (one replicated change) and every render decodes it with a single pass.
+ */
+public record HaFlowState(String id, long ttl, long exp, String payload) {
+
+    private static final String VERSION = "1";
+    private static final char SEP = '|';
+
+    public static HaFlowState of(String id, long ttl, long exp) {
+        return new HaFlowState(id, ttl, exp, null);
+    }
+
+    public String encode() {
+        StringBuilder sb = new StringBuilder(48 + (payload != null ? payload.length() : 0))
+                .append(VERSION)
+                .append(SEP)
+                .append(id)
+                .append(SEP)
+                .append(ttl)
+                .append(SEP)
+                .append(exp);
+        if (payload != null) {
+            sb.append(SEP)
+                    .append(payload);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return decoded state, or {@code null} when the note is absent, malformed or written by an unknown version
+     */
+    public static HaFlowState decode(String raw) {
+        if (raw == null || raw.isBlank()) return null;
+        int v = raw.indexOf(SEP);
+        if (v < 0 || !VERSION.equals(raw.substring(0, v))) return null;
+        int i = raw.indexOf(SEP, v + 1);
+        int t = i < 0 ? -1 : raw.indexOf(SEP, i + 1);
+        if (t < 0) return null;
+        int e = raw.indexOf(SEP, t + 1);
+        try {
+            String id = raw.substring(v + 1, i);
+            long ttl = Long.parseLong(raw, i + 1, t, 10);
+            long exp = Long.parseLong(raw, t + 1, e < 0 ? raw.length() : e, 10);
+            String payload = e < 0 ? null : raw.substring(e + 1);
+            return id.isBlank() ? null : new HaFlowState(id, ttl, exp, payload);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Extracts only the id, used by watch/close paths that do not need the rest of the state.
+     */
+    public static String idOf(String raw) {
+        HaFlowState state = decode(raw);
+        return state != null ? state.id() : null;
+    }
+}
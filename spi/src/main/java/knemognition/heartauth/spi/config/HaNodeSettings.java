@@ -0,0 +1,46 @@
+package knemognition.heartauth.spi.config;
+
+/**
+ * Node-wide switches read once from the environment (or the equivalent system property),
+ * as opposed to the per-realm orchestrator settings in {@link HaRealmSettings}.
+ */
+public final class HaNodeSettings {
+    private HaNodeSettings() {
+    }
+
+    public static final String VIRTUAL_THREADS = "HA_VIRTUAL_THREADS";
+    public static final String ORCH_HTTP_THREADS = "HA_ORCH_HTTP_THREADS";
+    public static final String STATUS_STREAM = "HA_STATUS_STREAM";
+    public static final String STATUS_STREAM_HEARTBEAT_SECONDS = "HA_STATUS_STREAM_HEARTBEAT_SECONDS";
+    public static final String ORCH_MAX_IN_FLIGHT = "HA_ORCH_MAX_IN_FLIGHT";
+    public static final String ORCH_RETRY_BUDGET_PERCENT = "HA_ORCH_RETRY_BUDGET_PERCENT";
+    public static final String REAPER_INTERVAL_SECONDS = "HA_REAPER_INTERVAL_SECONDS";
+    public static final String REAPER_BATCH_SIZE = "HA_REAPER_BATCH_SIZE";
+    public static final String REAPER_MAX_PER_RUN = "HA_REAPER_MAX_PER_RUN";
+    public static final String REAPER_BATCH_PAUSE_MS = "HA_REAPER_BATCH_PAUSE_MS";
+
+    public static boolean flag(String env, boolean defaultValue) {
+        String raw = raw(env);
+        return raw == null ? defaultValue : Boolean.parseBoolean(raw);
+    }
+
+    public static int positiveInt(String env, int defaultValue) {
+        String raw = raw(env);
+        if (raw == null) return defaultValue;
+        try {
+            int val = Integer.parseInt(raw.replace("_", ""));
+            return val > 0 ? val : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String raw(String env) {
+        String v = System.getenv(env);
+        if (v == null || v.isBlank()) {
+            v = System.getProperty(env.toLowerCase()
+                    .replace('_', '.'));
+        }
+        return v == null || v.isBlank() ? null : v.trim();
+    }
+}
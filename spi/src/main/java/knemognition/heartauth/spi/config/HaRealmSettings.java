@@ -2,6 +2,7 @@ package knemognition.heartauth.spi.config;
 
 import org.keycloak.models.RealmModel;
 
+import java.time.Duration;
 import java.util.Objects;
 
 public final class HaRealmSettings {
@@ -19,6 +20,37 @@ public final class HaRealmSettings {
         return new HaConfig(baseUri, apiKey, pairingTtl, challengeTtl);
     }
 
+    /**
+     * Age after which users still marked as pending registration are removed by the background reaper,
+     * or {@code null} when the realm has not opted in.
+     */
+    public static Duration pendingRegistrationMaxAge(RealmModel realm) {
+        Objects.requireNonNull(realm, "realm");
+        String raw = realm.getAttribute(HaAttributes.PENDING_REGISTRATION_MAX_AGE_HOURS);
+        if (raw == null || raw.isBlank()) {
+            return null;
+        }
+        return Duration.ofHours(requirePositiveInt(realm, HaAttributes.PENDING_REGISTRATION_MAX_AGE_HOURS));
+    }
+
+    /**
+     * Resend limits for the realm; each attribute falls back to {@link ResendLimit#DEFAULT} when unset.
+     */
+    public static ResendLimit resendLimit(RealmModel realm) {
+        Objects.requireNonNull(realm, "realm");
+        return new ResendLimit(
+                optionalPositiveInt(realm, HaAttributes.RESEND_BURST, ResendLimit.DEFAULT.burst()),
+                optionalPositiveInt(realm, HaAttributes.RESEND_PER_MINUTE, ResendLimit.DEFAULT.perMinute())
+        );
+    }
+
+    private static int optionalPositiveInt(RealmModel realm, String key, int defaultValue) {
+        String raw = realm.getAttribute(key);
+        if (raw == null || raw.isBlank()) {
+            return defaultValue;
+        }
+        return requirePositiveInt(realm, key);
+    }
 
     private static String require(RealmModel realm, String key) {
         String v = realm.getAttribute(key);
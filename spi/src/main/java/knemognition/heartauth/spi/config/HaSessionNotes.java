@@ -2,16 +2,13 @@ package knemognition.heartauth.spi.config;
 
 /**
  * Shared keys for data stored in Keycloak authentication session notes.
+ * Values are {@link HaFlowState} encodings.
  */
 public final class HaSessionNotes {
 
     private HaSessionNotes() {
     }
 
-    public static final String ECG_CHALLENGE_ID = "ecg.challengeId";
-    public static final String PAIRING_JTI = "ecg.pair.jti";
-    public static final String PAIRING_JWT = "ecg.pair.jwt";
-    public static final String TTL = "ecg.ttl";
-    public static final String EXP = "ecg.exp";
+    public static final String ECG_STATE = "ecg.state";
+    public static final String PAIRING_STATE = "ecg.pair.state";
 }
-
@@ -0,0 +1,9 @@
+package knemognition.heartauth.spi.config;
+
+/**
+ * Per-realm resend allowance: up to {@code burst} resends at once, refilled at {@code perMinute}.
+ */
+public record ResendLimit(int burst, int perMinute) {
+
+    public static final ResendLimit DEFAULT = new ResendLimit(3, 6);
+}
@@ -4,19 +4,27 @@ import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.orchestrator.model.CreateChallengeResponseDto;
 import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.spi.config.HaFlowState;
+import knemognition.heartauth.spi.config.HaRealmSettings;
 import knemognition.heartauth.spi.config.HaSessionNotes;
 import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.ResendLimiter;
+import knemognition.heartauth.spi.gateway.SingleFlight;
+import knemognition.heartauth.spi.status.StatusSnapshotStore;
 import knemognition.heartauth.spi.status.StatusWatchRegistry;
 import knemognition.heartauth.spi.status.StatusWatchResourceProviderFactory;
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationFlowError;
 import org.keycloak.authentication.Authenticator;
+import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.tracing.TracingProviderUtil;
 
 import java.net.URI;
 import java.util.UUID;
@@ -24,25 +32,71 @@ import java.util.UUID;
 
 public class EcgAuthenticator implements Authenticator {
     private static final Logger LOG = Logger.getLogger(EcgAuthenticator.class);
+    private static final SingleFlight<CreateChallengeResponseDto> CREATES = new SingleFlight<>();
+    private static final String RESEND_LIMITED = "Too many resend requests. Please wait a moment and try again.";
 
-    private void requestNewChallenge(AuthenticationFlowContext ctx) throws ApiException {
+    private HaFlowState requestNewChallenge(AuthenticationFlowContext ctx, boolean usePrefetched) throws ApiException {
         AuthenticationSessionModel sess = ctx.getAuthenticationSession();
-        closeActiveEcgWatch(sess);
-        OrchClient orchestrator = OrchClient.clientFromRealm(ctx.getRealm());
-        UUID userId = parseUserId(ctx.getUser());
-        var response = orchestrator.createChallenge(userId);
-        sess.setAuthNote(HaSessionNotes.ECG_CHALLENGE_ID, response.getChallengeId()
-                .toString());
-        sess.setAuthNote(HaSessionNotes.TTL, Long.toString(response.getTtl()));
-        sess.setAuthNote(HaSessionNotes.EXP, response.getExp()
-                .toString());
-    }
-
-    private void render(AuthenticationFlowContext ctx) {
+        HaFlowState previous = readState(sess);
+        CreateChallengeResponseDto response = usePrefetched
+                ? EcgChallengePrefetch.take(sess, ctx.getUser())
+                : null;
+        if (response == null) {
+            EcgChallengePrefetch.discard(sess);
+            response = createChallenge(OrchClient.clientFromRealm(ctx.getRealm()), flightKey(sess, ctx.getUser()),
+                    parseUserId(ctx.getUser()));
+        }
+        String challengeId = response.getChallengeId()
+                .toString();
+        if (previous != null) {
+            if (previous.id()
+                    .equals(challengeId)) {
+                return previous;
+            }
+            StatusWatchRegistry.closeEcg(sess, previous.id());
+        }
+        HaFlowState state = HaFlowState.of(challengeId, response.getTtl(), response.getExp());
+        sess.setAuthNote(HaSessionNotes.ECG_STATE, state.encode());
+        return state;
+    }
+
+    /**
+     * The one guarded create path, shared with {@link EcgChallengePrefetch}: refused while the orchestrator is
+     * known to be down, and coalesced per session tab and user.
+     */
+    static CreateChallengeResponseDto createChallenge(OrchClient orchestrator, String flightKey, UUID userId)
+            throws ApiException {
+        orchestrator.ensureAvailable();
+        return CREATES.run(flightKey, key -> orchestrator.createChallenge(userId, key));
+    }
+
+    private static boolean resendAllowed(AuthenticationFlowContext ctx) {
+        return ResendLimiter.tryAcquire(ctx.getRealm()
+                .getId(), ctx.getUser()
+                .getId(), ctx.getConnection()
+                .getRemoteAddr(), HaRealmSettings.resendLimit(ctx.getRealm()));
+    }
+
+    private void rejectResend(AuthenticationFlowContext ctx) {
+        HaFlowState state = readState(ctx.getAuthenticationSession());
+        if (state != null) {
+            render(ctx, state, RESEND_LIMITED);
+            return;
+        }
+        ctx.failureChallenge(
+                AuthenticationFlowError.INTERNAL_ERROR,
+                ctx.form()
+                        .setError(RESEND_LIMITED)
+                        .createErrorPage(Status.TOO_MANY_REQUESTS)
+        );
+    }
+
+    private void render(AuthenticationFlowContext ctx, HaFlowState state) {
+        render(ctx, state, null);
+    }
+
+    private void render(AuthenticationFlowContext ctx, HaFlowState state, String error) {
         AuthenticationSessionModel as = ctx.getAuthenticationSession();
-        String idStr = as.getAuthNote(HaSessionNotes.ECG_CHALLENGE_ID);
-        Long ttl = Long.parseLong(as.getAuthNote(HaSessionNotes.TTL));
-        Long exp = Long.parseLong(as.getAuthNote(HaSessionNotes.EXP));
         URI watchBase = ctx.getSession()
                 .getContext()
                 .getUri()
@@ -55,10 +109,14 @@ public class EcgAuthenticator implements Authenticator {
                 .path("ecg")
                 .build();
 
-        Response page = ctx.form()
-                .setAttribute("id", idStr)
-                .setAttribute("ttl", ttl)
-                .setAttribute("exp", exp)
+        LoginFormsProvider form = ctx.form();
+        if (error != null) {
+            form.setError(error);
+        }
+        Response page = form
+                .setAttribute("id", state.id())
+                .setAttribute("ttl", state.ttl())
+                .setAttribute("exp", state.exp())
                 .setAttribute("rootAuthSessionId", as.getParentSession()
                         .getId())
                 .setAttribute("tabId", as.getTabId())
@@ -72,25 +130,46 @@ public class EcgAuthenticator implements Authenticator {
         return UUID.fromString(user.getId());
     }
 
-    private static void clearNotes(AuthenticationSessionModel s) {
+    private static HaFlowState readState(AuthenticationSessionModel s) {
+        return HaFlowState.decode(s.getAuthNote(HaSessionNotes.ECG_STATE));
+    }
+
+    /**
+     * Includes the user, so a create started for one user is never shared with another on the same tab.
+     */
+    static String flightKey(AuthenticationSessionModel s, UserModel user) {
+        return StatusWatchRegistry.TYPE_ECG + ":" + s.getParentSession()
+                .getId() + ":" + s.getTabId() + ":" + user.getId();
+    }
+
+    private static void clearNotes(AuthenticationFlowContext ctx) {
+        AuthenticationSessionModel s = ctx.getAuthenticationSession();
         closeActiveEcgWatch(s);
-        s.removeAuthNote(HaSessionNotes.ECG_CHALLENGE_ID);
+        s.removeAuthNote(HaSessionNotes.ECG_STATE);
+        CREATES.reset(flightKey(s, ctx.getUser()));
     }
 
     @Override
     public void authenticate(AuthenticationFlowContext ctx) {
+        TracingProviderUtil.getTracingProvider(ctx.getSession())
+                .trace(EcgAuthenticator.class, "authenticate", span -> {
+                    doAuthenticate(ctx);
+                });
+    }
+
+    private void doAuthenticate(AuthenticationFlowContext ctx) {
         try {
             AuthenticationSessionModel sess = ctx.getAuthenticationSession();
 
-            String existing = sess.getAuthNote(HaSessionNotes.ECG_CHALLENGE_ID);
-            if (existing != null && !existing.isBlank()) {
-                closeActiveEcgWatch(sess);
-                render(ctx);
+            HaFlowState existing = readState(sess);
+            if (existing != null) {
+                // Same challenge rendered again: the new page watches this id too.
+                StatusWatchRegistry.disconnectEcg(sess, existing.id());
+                render(ctx, existing);
                 return;
             }
 
-            requestNewChallenge(ctx);
-            render(ctx);
+            render(ctx, requestNewChallenge(ctx, true));
 
         } catch (ApiException e) {
             LOG.warn("ECG orchestrator call failed", e);
@@ -113,12 +192,24 @@ public class EcgAuthenticator implements Authenticator {
 
     @Override
     public void action(AuthenticationFlowContext ctx) {
+        TracingProviderUtil.getTracingProvider(ctx.getSession())
+                .trace(EcgAuthenticator.class, "action", span -> {
+                    doAction(ctx);
+                });
+    }
+
+    private void doAction(AuthenticationFlowContext ctx) {
         MultivaluedMap<String, String> formParams = ctx.getHttpRequest()
                 .getDecodedFormParameters();
         if (formParams != null && "true".equalsIgnoreCase(formParams.getFirst("resend"))) {
+            if (!resendAllowed(ctx)) {
+                LOG.infof("ECG resend rate-limited for user %s", ctx.getUser()
+                        .getId());
+                rejectResend(ctx);
+                return;
+            }
             try {
-                requestNewChallenge(ctx);
-                render(ctx);
+                render(ctx, requestNewChallenge(ctx, false));
                 return;
             } catch (ApiException e) {
                 LOG.warn("ECG resend orchestrator call failed", e);
@@ -141,9 +232,8 @@ public class EcgAuthenticator implements Authenticator {
             }
         }
 
-        String idStr = ctx.getAuthenticationSession()
-                .getAuthNote(HaSessionNotes.ECG_CHALLENGE_ID);
-        if (idStr == null || idStr.isBlank()) {
+        HaFlowState state = readState(ctx.getAuthenticationSession());
+        if (state == null) {
             ctx.failureChallenge(
                     AuthenticationFlowError.EXPIRED_CODE,
                     ctx.form()
@@ -153,18 +243,22 @@ public class EcgAuthenticator implements Authenticator {
             return;
         }
 
-        UUID id = UUID.fromString(idStr);
+        UUID id = UUID.fromString(state.id());
         try {
-            OrchClient orchestrator = OrchClient.clientFromRealm(ctx.getRealm());
-            StatusResponseDto status = orchestrator.getChallengeStatus(id);
+            StatusResponseDto status = StatusSnapshotStore.lookup(ctx.getSession(), StatusWatchRegistry.TYPE_ECG,
+                    state.id());
+            if (status == null) {
+                status = OrchClient.clientFromRealm(ctx.getRealm())
+                        .getChallengeStatus(id);
+            }
 
             switch (status.getStatus()) {
                 case APPROVED -> {
-                    clearNotes(ctx.getAuthenticationSession());
+                    clearNotes(ctx);
                     ctx.success();
                 }
                 case DENIED -> {
-                    clearNotes(ctx.getAuthenticationSession());
+                    clearNotes(ctx);
                     ctx.failureChallenge(
                             AuthenticationFlowError.INVALID_USER,
                             ctx.form()
@@ -173,7 +267,7 @@ public class EcgAuthenticator implements Authenticator {
                     );
                 }
                 case EXPIRED, NOT_FOUND -> {
-                    clearNotes(ctx.getAuthenticationSession());
+                    clearNotes(ctx);
                     ctx.failureChallenge(
                             AuthenticationFlowError.EXPIRED_CODE,
                             ctx.form()
@@ -181,7 +275,7 @@ public class EcgAuthenticator implements Authenticator {
                                     .createErrorPage(Status.UNAUTHORIZED)
                     );
                 }
-                default -> render(ctx);
+                default -> render(ctx, state);
             }
         } catch (ApiException e) {
             LOG.warn("ECG status check failed", e);
@@ -224,8 +318,8 @@ public class EcgAuthenticator implements Authenticator {
         if (session == null) {
             return;
         }
-        String challengeId = session.getAuthNote(HaSessionNotes.ECG_CHALLENGE_ID);
-        if (challengeId == null || challengeId.isBlank()) {
+        String challengeId = HaFlowState.idOf(session.getAuthNote(HaSessionNotes.ECG_STATE));
+        if (challengeId == null) {
             return;
         }
         StatusWatchRegistry.closeEcg(session, challengeId);
@@ -1,6 +1,8 @@
 package knemognition.heartauth.spi.ecg;
 
 
+import knemognition.heartauth.spi.gateway.HaTracing;
+import knemognition.heartauth.spi.gateway.OrchHttp;
 import org.keycloak.Config.Scope;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
@@ -68,6 +70,8 @@ public class EcgAuthenticatorFactory implements AuthenticatorFactory {
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        HaTracing.init(factory);
+        OrchHttp.warmUpOnStartup(factory);
     }
 
     @Override
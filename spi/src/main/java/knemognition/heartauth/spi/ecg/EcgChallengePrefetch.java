@@ -0,0 +1,186 @@
+package knemognition.heartauth.spi.ecg;
+
+import knemognition.heartauth.orchestrator.model.CreateChallengeResponseDto;
+import knemognition.heartauth.spi.config.HaConstants;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.OrchClient;
+import org.jboss.logging.Logger;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local cache of challenge creations started ahead of the ECG step, keyed by authentication session.
+ * <p>
+ * Filled by {@link EcgPrefetchAuthenticator} once the user is known and drained by {@link EcgAuthenticator},
+ * which picks up the completed (or still in-flight) response instead of calling the orchestrator itself.
+ * Anything that cannot be used (other user, too old, failed) is dropped and the caller falls back to a
+ * synchronous create. Prefetches go through the same guarded, coalesced create as the synchronous path, and
+ * each entry is removed once its challenge expires or {@link HaConstants#PREFETCH_MAX_AGE} passes, whichever
+ * comes first.
+ */
+public final class EcgChallengePrefetch {
+
+    private static final Logger LOG = Logger.getLogger(EcgChallengePrefetch.class);
+
+    private static final int MAX_PENDING = 10_000;
+    private static final int POOL_SIZE = 8;
+    private static final int QUEUE_SIZE = 1_000;
+
+    private static final ConcurrentHashMap<String, Pending> PENDING = new ConcurrentHashMap<>();
+    private static final ExecutorService EXECUTOR = newExecutor();
+
+    private EcgChallengePrefetch() {
+    }
+
+    public static void start(AuthenticationSessionModel session, UserModel user, OrchClient client) {
+        String key = key(session);
+        if (key.isEmpty() || user == null) return;
+        if (PENDING.size() >= MAX_PENDING) {
+            purgeExpired();
+            if (PENDING.size() >= MAX_PENDING) return;
+        }
+        UUID userId = UUID.fromString(user.getId());
+        String flightKey = EcgAuthenticator.flightKey(session, user);
+        Pending[] created = new Pending[1];
+        PENDING.computeIfAbsent(key, k -> {
+            try {
+                CompletableFuture<CreateChallengeResponseDto> future = CompletableFuture.supplyAsync(HaExecutors.withMdc(() -> {
+                    try {
+                        return EcgAuthenticator.createChallenge(client, flightKey, userId);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }), EXECUTOR);
+                return created[0] = new Pending(user.getId(), future);
+            } catch (RejectedExecutionException full) {
+                return null;
+            }
+        });
+        if (created[0] != null) {
+            scheduleExpiry(key, created[0]);
+        }
+    }
+
+    private static void scheduleExpiry(String key, Pending pending) {
+        removeAfter(key, pending, HaConstants.PREFETCH_MAX_AGE.toMillis());
+        pending.future()
+                .whenComplete((response, err) -> {
+                    if (err != null || response == null || response.getExp() == null) {
+                        PENDING.remove(key, pending);
+                        return;
+                    }
+                    long remainingMs = response.getExp() * 1000 - System.currentTimeMillis();
+                    pending.expireWithin(remainingMs);
+                    removeAfter(key, pending, remainingMs);
+                });
+    }
+
+    private static void removeAfter(String key, Pending pending, long delayMs) {
+        CompletableFuture.delayedExecutor(Math.max(0, delayMs), TimeUnit.MILLISECONDS)
+                .execute(() -> PENDING.remove(key, pending));
+    }
+
+    /**
+     * Removes and returns the prefetched challenge for this session, waiting for it if still in flight.
+     *
+     * @return the response, or {@code null} when nothing usable was prefetched
+     */
+    public static CreateChallengeResponseDto take(AuthenticationSessionModel session, UserModel user) {
+        String key = key(session);
+        if (key.isEmpty() || user == null) return null;
+        Pending pending = PENDING.remove(key);
+        if (pending == null) return null;
+        if (!pending.userId()
+                .equals(user.getId()) || pending.isExpired()) {
+            pending.future()
+                    .cancel(false);
+            return null;
+        }
+        try {
+            return pending.future()
+                    .get(HaConstants.INTERACTIVE_CALL_DEADLINE.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread()
+                    .interrupt();
+            return null;
+        } catch (Exception e) {
+            LOG.debugf(e, "Prefetched challenge unusable for %s", key);
+            return null;
+        }
+    }
+
+    public static void discard(AuthenticationSessionModel session) {
+        String key = key(session);
+        if (key.isEmpty()) return;
+        Pending pending = PENDING.remove(key);
+        if (pending != null) {
+            pending.future()
+                    .cancel(false);
+        }
+    }
+
+    static void shutdown() {
+        PENDING.clear();
+        EXECUTOR.shutdownNow();
+    }
+
+    private static void purgeExpired() {
+        PENDING.values()
+                .removeIf(Pending::isExpired);
+    }
+
+    private static String key(AuthenticationSessionModel session) {
+        if (session == null || session.getParentSession() == null) return "";
+        String rootId = session.getParentSession()
+                .getId();
+        String tabId = session.getTabId();
+        if (rootId == null || tabId == null) return "";
+        return rootId + ":" + tabId;
+    }
+
+    private static ExecutorService newExecutor() {
+        return new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                HaExecutors.threadFactory("ha-ecg-prefetch-"));
+    }
+
+    private static final class Pending {
+        private final String userId;
+        private final CompletableFuture<CreateChallengeResponseDto> future;
+        private volatile long deadlineNanos;
+
+        Pending(String userId, CompletableFuture<CreateChallengeResponseDto> future) {
+            this.userId = userId;
+            this.future = future;
+            this.deadlineNanos = System.nanoTime() + HaConstants.PREFETCH_MAX_AGE.toNanos();
+        }
+
+        String userId() {
+            return userId;
+        }
+
+        CompletableFuture<CreateChallengeResponseDto> future() {
+            return future;
+        }
+
+        /**
+         * Pulls the deadline in to the challenge's own expiry when that comes first.
+         */
+        void expireWithin(long remainingMs) {
+            deadlineNanos = Math.min(deadlineNanos, System.nanoTime() + remainingMs * 1_000_000);
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - deadlineNanos > 0;
+        }
+    }
+}
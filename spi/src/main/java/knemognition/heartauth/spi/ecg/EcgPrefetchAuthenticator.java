@@ -0,0 +1,75 @@
+package knemognition.heartauth.spi.ecg;
+
+import knemognition.heartauth.spi.config.HaRealmSettings;
+import knemognition.heartauth.spi.config.HaSessionNotes;
+import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.ResendLimiter;
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * Starts the ECG challenge in the background as soon as the user is identified, so the
+ * orchestrator round-trip (and FCM dispatch) overlaps with the remaining steps of the flow.
+ * Never blocks or fails the flow itself.
+ * <p>
+ * A prefetch pushes to the user's device, so it belongs after the first factor (password, OTP), never right
+ * after a bare username form. Each start also takes a token from the user's and the client address' resend
+ * buckets ({@link ResendLimiter}); when refused, nothing is prefetched and the ECG step creates the challenge
+ * itself, under its own checks.
+ */
+public class EcgPrefetchAuthenticator implements Authenticator {
+    private static final Logger LOG = Logger.getLogger(EcgPrefetchAuthenticator.class);
+
+    @Override
+    public void authenticate(AuthenticationFlowContext ctx) {
+        AuthenticationSessionModel sess = ctx.getAuthenticationSession();
+        UserModel user = ctx.getUser();
+        if (user != null && sess.getAuthNote(HaSessionNotes.ECG_STATE) == null) {
+            if (!prefetchAllowed(ctx, user)) {
+                LOG.debugf("ECG prefetch rate-limited for user %s", user.getId());
+                ctx.success();
+                return;
+            }
+            try {
+                EcgChallengePrefetch.start(sess, user, OrchClient.clientFromRealm(ctx.getRealm()));
+            } catch (Exception e) {
+                LOG.warn("ECG prefetch could not be started", e);
+            }
+        }
+        ctx.success();
+    }
+
+    private static boolean prefetchAllowed(AuthenticationFlowContext ctx, UserModel user) {
+        RealmModel realm = ctx.getRealm();
+        return ResendLimiter.tryAcquire(realm.getId(), user.getId(), ctx.getConnection()
+                .getRemoteAddr(), HaRealmSettings.resendLimit(realm));
+    }
+
+    @Override
+    public void action(AuthenticationFlowContext ctx) {
+        ctx.success();
+    }
+
+    @Override
+    public boolean requiresUser() {
+        return true;
+    }
+
+    @Override
+    public boolean configuredFor(KeycloakSession s, RealmModel r, UserModel u) {
+        return true;
+    }
+
+    @Override
+    public void setRequiredActions(KeycloakSession s, RealmModel r, UserModel u) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
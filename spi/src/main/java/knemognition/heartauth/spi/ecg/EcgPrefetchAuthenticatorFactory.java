@@ -0,0 +1,78 @@
+package knemognition.heartauth.spi.ecg;
+
+
+import org.keycloak.Config.Scope;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.AuthenticatorFactory;
+import org.keycloak.models.AuthenticationExecutionModel.Requirement;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.ProviderConfigProperty;
+
+import java.util.List;
+
+public class EcgPrefetchAuthenticatorFactory implements AuthenticatorFactory {
+    public static final String ID = "ecg-challenge-prefetch";
+
+
+    private static final EcgPrefetchAuthenticator SINGLETON = new EcgPrefetchAuthenticator();
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public Authenticator create(KeycloakSession session) {
+        return SINGLETON;
+    }
+
+    @Override
+    public String getDisplayType() {
+        return "ECG Challenge Prefetch";
+    }
+
+    @Override
+    public String getReferenceCategory() {
+        return "";
+    }
+
+    @Override
+    public String getHelpText() {
+        return "Start the ECG challenge in the background once the user is known. Place after the first factor "
+                + "(e.g. password) and before the ECG Challenge step; starts count against the resend limit.";
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigProperties() {
+        return List.of();
+    }
+
+    @Override
+    public Requirement[] getRequirementChoices() {
+        return new Requirement[]{Requirement.REQUIRED, Requirement.DISABLED};
+    }
+
+    @Override
+    public boolean isUserSetupAllowed() {
+        return false;
+    }
+
+    @Override
+    public boolean isConfigurable() {
+        return true;
+    }
+
+    @Override
+    public void init(Scope config) {
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+    }
+
+    @Override
+    public void close() {
+        EcgChallengePrefetch.shutdown();
+    }
+}
@@ -0,0 +1,106 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.spi.config.HaNodeSettings;
+import org.jboss.logging.MDC;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Threads used for orchestrator I/O and status watches.
+ * <p>
+ * By default everything runs on the calling (Keycloak worker) thread. With {@code HA_VIRTUAL_THREADS=true}
+ * watch loops are moved off the request thread onto virtual threads, and the orchestrator HTTP client and
+ * background work use virtual threads as well.
+ */
+public final class HaExecutors {
+
+    private static final boolean VIRTUAL = HaNodeSettings.flag(HaNodeSettings.VIRTUAL_THREADS, false);
+
+    private HaExecutors() {
+    }
+
+    public static boolean virtualThreads() {
+        return VIRTUAL;
+    }
+
+    /**
+     * Runs status-watch steps in virtual-thread mode. Platform-mode watches step on their own request thread,
+     * expiry included, and never use it.
+     */
+    public static ExecutorService watchExecutor() {
+        return WatchHolder.EXECUTOR;
+    }
+
+    /**
+     * Executor of the shared orchestrator HTTP client: a small fixed pool, or virtual threads.
+     */
+    public static ExecutorService httpExecutor() {
+        return HttpHolder.EXECUTOR;
+    }
+
+    /**
+     * Carries the caller's MDC (correlation id and anything Keycloak put there) onto the executing thread
+     * and restores that thread's own MDC afterwards.
+     */
+    public static Runnable withMdc(Runnable task) {
+        Map<String, Object> captured = MDC.getMap();
+        return () -> {
+            Map<String, Object> previous = MDC.getMap();
+            replaceMdc(captured);
+            try {
+                task.run();
+            } finally {
+                replaceMdc(previous);
+            }
+        };
+    }
+
+    public static <T> Supplier<T> withMdc(Supplier<T> task) {
+        Map<String, Object> captured = MDC.getMap();
+        return () -> {
+            Map<String, Object> previous = MDC.getMap();
+            replaceMdc(captured);
+            try {
+                return task.get();
+            } finally {
+                replaceMdc(previous);
+            }
+        };
+    }
+
+    private static void replaceMdc(Map<String, Object> values) {
+        MDC.clear();
+        values.forEach(MDC::put);
+    }
+
+    public static ThreadFactory threadFactory(String prefix) {
+        if (VIRTUAL) {
+            return Thread.ofVirtual()
+                    .name(prefix, 1)
+                    .factory();
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static final class HttpHolder {
+        private static final ExecutorService EXECUTOR = VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(threadFactory("ha-orch-http-"))
+                : Executors.newFixedThreadPool(HaNodeSettings.positiveInt(HaNodeSettings.ORCH_HTTP_THREADS, 4),
+                threadFactory("ha-orch-http-"));
+    }
+
+    private static final class WatchHolder {
+        private static final ExecutorService EXECUTOR =
+                Executors.newThreadPerTaskExecutor(threadFactory("ha-watch-"));
+    }
+}
@@ -0,0 +1,75 @@
+package knemognition.heartauth.spi.gateway;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import knemognition.heartauth.orchestrator.ApiException;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.tracing.TracingProviderUtil;
+
+import java.net.http.HttpRequest;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracing for code that runs outside a Keycloak session (orchestrator calls, watch loops on their own
+ * threads). The tracer comes from Keycloak's tracing provider once at startup, so spans go wherever Keycloak
+ * exports its own and are no-ops when tracing is disabled.
+ */
+public final class HaTracing {
+
+    private static final String INSTRUMENTATION = "knemognition.heartauth.spi";
+    private static final AtomicBoolean INITIALIZED = new AtomicBoolean();
+
+    private static volatile Tracer tracer = OpenTelemetry.noop()
+            .getTracer(INSTRUMENTATION);
+
+    private HaTracing() {
+    }
+
+    /**
+     * Safe to call from several factories.
+     */
+    public static void init(KeycloakSessionFactory factory) {
+        if (!INITIALIZED.compareAndSet(false, true)) return;
+        KeycloakModelUtils.runJobInTransaction(factory, s -> tracer = TracingProviderUtil.getTracingProvider(s)
+                .getTracer(INSTRUMENTATION));
+    }
+
+    public static Tracer tracer() {
+        return tracer;
+    }
+
+    /**
+     * Adds the W3C {@code traceparent} of the current span, linking the orchestrator's work to this login.
+     */
+    static void inject(HttpRequest.Builder request) {
+        W3CTraceContextPropagator.getInstance()
+                .inject(Context.current(), request, (b, name, value) -> b.setHeader(name, value));
+    }
+
+    /**
+     * Runs one logical orchestrator call (including its retries) in a client span.
+     */
+    static <T> T clientCall(String operationId, OrchAdmission.Call<T> call) throws ApiException {
+        Span span = tracer.spanBuilder("orchestrator " + operationId)
+                .setSpanKind(SpanKind.CLIENT)
+                .setAttribute("rpc.method", operationId)
+                .startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            return call.call();
+        } catch (ApiException e) {
+            span.setAttribute("http.response.status_code", e.getCode());
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package knemognition.heartauth.spi.gateway;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.spi.config.HaConstants;
+import knemognition.heartauth.spi.config.HaNodeSettings;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node-wide admission control for orchestrator calls, by {@link OrchPriority}.
+ * <p>
+ * All calls share {@code HA_ORCH_MAX_IN_FLIGHT} permits. Interactive calls queue for a permit (briefly);
+ * background polls never queue, and are deferred whenever an interactive call is waiting or only the
+ * reserved quarter of the permits is left, so they are the first to give way under load.
+ */
+final class OrchAdmission {
+
+    private static final int LIMIT = HaNodeSettings.positiveInt(HaNodeSettings.ORCH_MAX_IN_FLIGHT, 64);
+    private static final int RESERVED_FOR_INTERACTIVE = Math.max(1, LIMIT / 4);
+
+    private static final Semaphore PERMITS = new Semaphore(LIMIT, true);
+
+    private static final AtomicInteger INTERACTIVE_WAITING = new AtomicInteger();
+    private static final AtomicInteger INTERACTIVE_IN_FLIGHT = new AtomicInteger();
+    private static final AtomicInteger BACKGROUND_IN_FLIGHT = new AtomicInteger();
+    private static final Counter BACKGROUND_DEFERRED =
+            Metrics.counter("hauth.orch.deferred", "class", "background");
+    private static final Counter INTERACTIVE_REJECTED =
+            Metrics.counter("hauth.orch.deferred", "class", "interactive");
+
+    static {
+        Metrics.gauge("hauth.orch.queue.depth", Tags.of("class", "interactive"), INTERACTIVE_WAITING);
+        Metrics.gauge("hauth.orch.in.flight", Tags.of("class", "interactive"), INTERACTIVE_IN_FLIGHT);
+        Metrics.gauge("hauth.orch.in.flight", Tags.of("class", "background"), BACKGROUND_IN_FLIGHT);
+    }
+
+    private OrchAdmission() {
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+        T call() throws ApiException;
+    }
+
+    static <T> T run(OrchPriority priority, Call<T> call) throws ApiException {
+        AtomicInteger inFlight = priority == OrchPriority.INTERACTIVE ? INTERACTIVE_IN_FLIGHT : BACKGROUND_IN_FLIGHT;
+        if (priority == OrchPriority.INTERACTIVE) {
+            acquireInteractive();
+        } else {
+            acquireBackground();
+        }
+        inFlight.incrementAndGet();
+        try {
+            return call.call();
+        } finally {
+            inFlight.decrementAndGet();
+            PERMITS.release();
+        }
+    }
+
+    private static void acquireInteractive() throws ApiException {
+        if (PERMITS.tryAcquire()) return;
+        INTERACTIVE_WAITING.incrementAndGet();
+        try {
+            if (PERMITS.tryAcquire(HaConstants.INTERACTIVE_ADMISSION_WAIT.toMillis(), TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new ApiException(e);
+        } finally {
+            INTERACTIVE_WAITING.decrementAndGet();
+        }
+        INTERACTIVE_REJECTED.increment();
+        throw new ApiException(503, "Orchestrator call rejected: " + LIMIT + " calls already in flight on this node");
+    }
+
+    private static void acquireBackground() throws ApiException {
+        if (INTERACTIVE_WAITING.get() == 0
+                && PERMITS.availablePermits() > RESERVED_FOR_INTERACTIVE
+                && PERMITS.tryAcquire()) {
+            return;
+        }
+        BACKGROUND_DEFERRED.increment();
+        throw new OrchDeferredException("Background poll deferred: orchestrator capacity reserved for interactive calls");
+    }
+}
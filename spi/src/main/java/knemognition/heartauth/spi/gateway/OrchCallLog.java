@@ -0,0 +1,70 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.spi.config.HaConstants;
+import org.jboss.logging.Logger;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates status-poll calls into one INFO summary per operation and period instead of two lines per poll.
+ * Creates and failures are still logged individually by {@link OrchClient}.
+ */
+final class OrchCallLog {
+
+    private static final Logger LOG = Logger.getLogger(OrchCallLog.class);
+
+    private static final long PERIOD_NANOS = HaConstants.POLL_LOG_SUMMARY_PERIOD.toNanos();
+    private static final ConcurrentHashMap<String, Window> WINDOWS = new ConcurrentHashMap<>();
+
+    private OrchCallLog() {
+    }
+
+    static void recordPoll(String operation, long elapsedNanos, boolean failed) {
+        Window w = WINDOWS.computeIfAbsent(operation, op -> new Window());
+        w.calls.increment();
+        w.totalNanos.add(elapsedNanos);
+        w.maxNanos.accumulate(elapsedNanos);
+        if (failed) {
+            w.errors.increment();
+        }
+        long now = System.nanoTime();
+        long due = w.flushAt.get();
+        if (now - due >= 0 && w.flushAt.compareAndSet(due, now + PERIOD_NANOS)) {
+            w.flush(operation);
+        }
+    }
+
+    /**
+     * Random v4-format id from {@link ThreadLocalRandom}: same shape the orchestrator already receives,
+     * without the contended {@code SecureRandom} behind {@link UUID#randomUUID()}.
+     */
+    static String newRouteId() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        long msb = (r.nextLong() & 0xffffffffffff0fffL) | 0x0000000000004000L;
+        long lsb = (r.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+
+    private static final class Window {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLong flushAt = new AtomicLong(System.nanoTime() + PERIOD_NANOS);
+
+        void flush(String operation) {
+            long n = calls.sumThenReset();
+            long e = errors.sumThenReset();
+            long total = totalNanos.sumThenReset();
+            long max = maxNanos.getThenReset();
+            if (n == 0) return;
+            LOG.infof("%s summary: calls=%d errors=%d avgMs=%.1f maxMs=%.1f periodS=%d",
+                    operation, n, e, total / 1e6 / n, max / 1e6, HaConstants.POLL_LOG_SUMMARY_PERIOD.toSeconds());
+        }
+    }
+}
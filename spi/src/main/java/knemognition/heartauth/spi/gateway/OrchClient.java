@@ -1,5 +1,6 @@
 package knemognition.heartauth.spi.gateway;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import knemognition.heartauth.orchestrator.ApiClient;
 import knemognition.heartauth.orchestrator.ApiException;
 import knemognition.heartauth.orchestrator.api.ChallengeApi;
@@ -7,74 +8,98 @@ import knemognition.heartauth.orchestrator.api.PairingApi;
 import knemognition.heartauth.orchestrator.model.*;
 import knemognition.heartauth.spi.config.HaConfig;
 import knemognition.heartauth.spi.config.HaConstants;
+import knemognition.heartauth.spi.config.HaNodeSettings;
 import knemognition.heartauth.spi.config.HaRealmSettings;
 import org.jboss.logging.Logger;
 import org.jboss.logging.MDC;
 import org.keycloak.models.RealmModel;
 
 import java.io.IOException;
-import java.net.Proxy;
-import java.net.ProxySelector;
-import java.net.SocketAddress;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.util.List;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public final class OrchClient {
 
     private static final Logger LOG = Logger.getLogger(OrchClient.class);
 
+    private static final int MAX_CACHED_CLIENTS = 256;
+    private static final ConcurrentHashMap<HaConfig, OrchClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private static final String CHALLENGE_STATUS_PATH = "/tenants/v1/challenge/status/";
+    private static final String PAIRING_STATUS_PATH = "/tenants/v1/pairing/status/";
+
     private final ChallengeApi challengeApi;
     private final PairingApi pairingApi;
+    private final String baseUri;
+    private final String apiKey;
+    private final String orchestratorBaseUri;
 
     private final int pairingTtlSeconds;
     private final int challengeTtlSeconds;
+    private final OrchStatusStream statusStream;
 
+    /**
+     * Clients are immutable and share one HTTP connection pool, so one instance is kept per distinct realm
+     * configuration instead of building a new client (and connection) per call.
+     */
     public static OrchClient clientFromRealm(RealmModel realm) {
-        return new OrchClient(HaRealmSettings.load(realm));
+        HaConfig cfg = HaRealmSettings.load(realm);
+        OrchClient client = CLIENTS.get(cfg);
+        if (client != null) return client;
+        if (CLIENTS.size() >= MAX_CACHED_CLIENTS) {
+            CLIENTS.clear();
+        }
+        return CLIENTS.computeIfAbsent(cfg, c -> {
+            OrchHealth.track(c.orchestratorBaseUri());
+            return new OrchClient(c);
+        });
     }
 
     private OrchClient(HaConfig cfg) {
-        ProxySelector noProxy = new ProxySelector() {
-            @Override
-            public List<Proxy> select(URI uri) {
-                return List.of(Proxy.NO_PROXY);
-            }
-
-            @Override
-            public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
-            }
-        };
-
-        HttpClient.Builder http = HttpClient.newBuilder()
-                .connectTimeout(HaConstants.TRANSPORT_TIMEOUT)
-                .proxy(noProxy);
-
-        ApiClient apiClient = new ApiClient()
-                .setHttpClientBuilder(http)
-                .setConnectTimeout(HaConstants.TRANSPORT_TIMEOUT)
+        ApiClient apiClient = new SharedHttpApiClient()
                 .setReadTimeout(HaConstants.TRANSPORT_TIMEOUT);
 
         apiClient.updateBaseUri(cfg.orchestratorBaseUri());
 
-        apiClient.setRequestInterceptor(b -> {
-            String routeId = (String) MDC.get(HaConstants.MDC_ROUTE_ID);
-            if (routeId == null) routeId = UUID.randomUUID()
-                    .toString();
-            b.header(HaConstants.AUTH_HEADER, cfg.apiKey());
-            b.header(HaConstants.REQUEST_ID_HEADER, routeId);
-            b.timeout(HaConstants.TRANSPORT_TIMEOUT);
-        });
+        this.apiKey = cfg.apiKey();
+        this.orchestratorBaseUri = cfg.orchestratorBaseUri();
+        apiClient.setRequestInterceptor(b -> applyHeaders(b, currentRouteId()));
 
+        this.baseUri = apiClient.getBaseUri();
         this.challengeApi = new ChallengeApi(apiClient);
         this.pairingApi = new PairingApi(apiClient);
         this.pairingTtlSeconds = cfg.pairingTtlSeconds();
         this.challengeTtlSeconds = cfg.challengeTtlSeconds();
+        this.statusStream = HaNodeSettings.flag(HaNodeSettings.STATUS_STREAM, false)
+                ? OrchStatusStream.of(baseUri, apiKey)
+                : null;
+    }
+
+    /**
+     * Cached result of the background probe; {@code false} only when the last probe failed.
+     */
+    public boolean isAvailable() {
+        return OrchHealth.isAvailable(orchestratorBaseUri);
     }
 
-    public CreateChallengeResponseDto createChallenge(UUID userId) throws ApiException {
+    /**
+     * Fails fast, without an upstream call, when the background probe has marked the orchestrator down.
+     */
+    public void ensureAvailable() throws ApiException {
+        if (!isAvailable()) {
+            throw new ApiException(503, "Orchestrator " + orchestratorBaseUri + " marked unavailable by health probe");
+        }
+    }
+
+    public CreateChallengeResponseDto createChallenge(UUID userId, String idempotencyKey) throws ApiException {
+        Object previousRouteId = MDC.get(HaConstants.MDC_ROUTE_ID);
         String routeId = createRouteId();
         try {
             LOG.infof("routeId=%s Sent Create Challenge Request", routeId);
@@ -83,62 +108,218 @@ public final class OrchClient {
                     .ttlSeconds(challengeTtlSeconds)
                     .build();
 
-            CreateChallengeResponseDto resp = challengeApi.createChallenge(req);
+            CreateChallengeResponseDto resp = HaTracing.clientCall("createChallenge",
+                    () -> OrchRetry.run("createChallenge",
+                            () -> OrchAdmission.run(OrchPriority.INTERACTIVE,
+                                    () -> challengeApi.createChallenge(req, idempotencyKey))));
             LOG.infof("routeId=%s Received Response to Challenge Create", routeId);
             return resp;
+        } catch (ApiException e) {
+            LOG.warnf("routeId=%s Challenge Create failed: %s", routeId, e.getMessage());
+            throw e;
         } finally {
-            MDC.remove(HaConstants.MDC_ROUTE_ID);
+            restoreRouteId(previousRouteId);
         }
     }
 
 
-    public CreatePairingResponseDto createPairing(UUID userId, String username) throws ApiException {
+    public CreatePairingResponseDto createPairing(UUID userId, String username, String idempotencyKey) throws ApiException {
+        return createPairing(userId, username, idempotencyKey, pairingTtlSeconds, OrchPriority.INTERACTIVE);
+    }
+
+    /**
+     * Pairing with an explicit lifetime. Only interactive creates are retried here; background ones are paced
+     * by their caller and do not draw on the retry budget.
+     */
+    public CreatePairingResponseDto createPairing(UUID userId, String username, String idempotencyKey,
+                                                  int ttlSeconds, OrchPriority priority) throws ApiException {
+        Object previousRouteId = MDC.get(HaConstants.MDC_ROUTE_ID);
         String routeId = createRouteId();
         try {
             LOG.infof("routeId=%s Sent Create Pairing Request", routeId);
             CreatePairingRequestDto req = CreatePairingRequestDto.builder()
                     .userId(userId)
-                    .ttlSeconds(pairingTtlSeconds)
+                    .ttlSeconds(ttlSeconds)
                     .username(username)
                     .build();
 
-            CreatePairingResponseDto resp = pairingApi.createPairing(req);
+            OrchAdmission.Call<CreatePairingResponseDto> create = () -> OrchAdmission.run(priority,
+                    () -> pairingApi.createPairing(req, idempotencyKey));
+            CreatePairingResponseDto resp = HaTracing.clientCall("createPairing",
+                    priority == OrchPriority.INTERACTIVE
+                            ? () -> OrchRetry.run("createPairing", create)
+                            : create);
             LOG.infof("routeId=%s Received Response to Pairing Create", routeId);
             return resp;
+        } catch (ApiException e) {
+            LOG.warnf("routeId=%s Pairing Create failed: %s", routeId, e.getMessage());
+            throw e;
         } finally {
-            MDC.remove(HaConstants.MDC_ROUTE_ID);
+            restoreRouteId(previousRouteId);
         }
     }
 
     public StatusResponseDto getChallengeStatus(UUID challengeId) throws ApiException {
-        String routeId = createRouteId();
+        return getChallengeStatus(challengeId, OrchPriority.INTERACTIVE);
+    }
+
+    public StatusResponseDto getChallengeStatus(UUID challengeId, OrchPriority priority) throws ApiException {
+        StatusResponseDto pushed = streamed(StatusEntityTypeDto.CHALLENGE, challengeId);
+        if (pushed != null) return pushed;
+        OrchAdmission.Call<StatusResponseDto> poll = () -> OrchAdmission.run(priority,
+                () -> pollStatus("getChallengeStatus", CHALLENGE_STATUS_PATH, challengeId));
+        // Background polls are retried by their watch loop; only calls a user is waiting on are retried here.
+        return HaTracing.clientCall("getChallengeStatus", priority == OrchPriority.INTERACTIVE
+                ? () -> OrchRetry.run("getChallengeStatus", poll)
+                : poll);
+    }
+
+    public StatusResponseDto getPairingStatus(UUID pairingId) throws ApiException {
+        return getPairingStatus(pairingId, OrchPriority.INTERACTIVE);
+    }
+
+    public StatusResponseDto getPairingStatus(UUID pairingId, OrchPriority priority) throws ApiException {
+        StatusResponseDto pushed = streamed(StatusEntityTypeDto.PAIRING, pairingId);
+        if (pushed != null) return pushed;
+        OrchAdmission.Call<StatusResponseDto> poll = () -> OrchAdmission.run(priority,
+                () -> pollStatus("getPairingStatus", PAIRING_STATUS_PATH, pairingId));
+        return HaTracing.clientCall("getPairingStatus", priority == OrchPriority.INTERACTIVE
+                ? () -> OrchRetry.run("getPairingStatus", poll)
+                : poll);
+    }
+
+    /**
+     * Registers an open status watch with the node's upstream status stream, when that mode is enabled, so
+     * later status reads are served from pushed events instead of polls.
+     */
+    public void watch(StatusEntityTypeDto type, UUID id) {
+        if (statusStream != null) {
+            statusStream.watch(type, id);
+        }
+    }
+
+    public void unwatch(StatusEntityTypeDto type, UUID id) {
+        if (statusStream != null) {
+            statusStream.unwatch(type, id);
+        }
+    }
+
+    private StatusResponseDto streamed(StatusEntityTypeDto type, UUID id) {
+        return statusStream != null ? statusStream.snapshot(type, id) : null;
+    }
+
+    /**
+     * Polls are not logged one by one: they are summarized by {@link OrchCallLog}, failures are logged with
+     * their route id, and the route id goes straight into the request header instead of through the MDC.
+     */
+    private StatusResponseDto pollStatus(String operationId, String path, UUID id) throws ApiException {
+        String routeId = currentRouteId();
+        long start = System.nanoTime();
         try {
-            LOG.infof("routeId=%s Sent Get Challenge Status Request", routeId);
-            StatusResponseDto resp = challengeApi.getChallengeStatus(challengeId);
-            LOG.infof("routeId=%s Received Response to Challenge Status", routeId);
+            StatusResponseDto resp = fetchStatus(operationId, path, id, routeId);
+            OrchCallLog.recordPoll(operationId, System.nanoTime() - start, false);
+            if (LOG.isDebugEnabled()) {
+                LOG.debugf("routeId=%s %s %s -> %s", routeId, operationId, id, resp.getStatus());
+            }
             return resp;
-        } finally {
-            MDC.remove(HaConstants.MDC_ROUTE_ID);
+        } catch (ApiException e) {
+            OrchCallLog.recordPoll(operationId, System.nanoTime() - start, true);
+            LOG.warnf("routeId=%s %s %s failed: %s", routeId, operationId, id, e.getMessage());
+            throw e;
         }
     }
 
-    public StatusResponseDto getPairingStatus(UUID pairingId) throws ApiException {
-        String routeId = createRouteId();
+    /**
+     * Status polls are the hot path, so they bypass the generated API and are deserialized straight from the
+     * response stream with the pre-bound reader. Polls are conditional on the last seen version: a
+     * {@code 304} returns the remembered status without reading a body.
+     */
+    private StatusResponseDto fetchStatus(String operationId, String path, UUID id, String routeId) throws ApiException {
+        String url = baseUri + path + id;
+        StatusVersions.Version known = StatusVersions.get(url);
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", "application/json")
+                .GET();
+        if (known != null) {
+            b.header("If-None-Match", known.etag());
+        }
+        applyHeaders(b, routeId);
         try {
-            LOG.infof("routeId=%s Sent Get Pairing Status Request", routeId);
-            StatusResponseDto resp = pairingApi.getPairingStatus(pairingId);
-            LOG.infof("routeId=%s Received Response to Pairing Status", routeId);
-            return resp;
-        } finally {
-            MDC.remove(HaConstants.MDC_ROUTE_ID);
+            HttpResponse<InputStream> res = OrchHttp.client()
+                    .send(b.build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = res.body()) {
+                if (res.statusCode() == 304 && known != null) {
+                    return known.status();
+                }
+                if (res.statusCode() / 100 != 2) {
+                    String text = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                    throw new ApiException(res.statusCode(),
+                            operationId + " call failed with: " + res.statusCode() + " - " + text,
+                            res.headers(), text);
+                }
+                StatusResponseDto status = OrchJson.STATUS_READER.readValue(body);
+                if (isTerminal(status)) {
+                    StatusVersions.remove(url);
+                } else {
+                    StatusVersions.put(url, res.headers()
+                            .firstValue("ETag")
+                            .orElse(null), status);
+                }
+                return status;
+            }
+        } catch (IOException e) {
+            throw new ApiException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new ApiException(e);
         }
     }
 
+    private static boolean isTerminal(StatusResponseDto status) {
+        FlowStatusDto s = status.getStatus();
+        return s != FlowStatusDto.CREATED && s != FlowStatusDto.PENDING;
+    }
+
+    private void applyHeaders(HttpRequest.Builder b, String routeId) {
+        b.setHeader(HaConstants.AUTH_HEADER, apiKey);
+        b.setHeader(HaConstants.REQUEST_ID_HEADER, routeId);
+        HaTracing.inject(b);
+        b.timeout(HaConstants.TRANSPORT_TIMEOUT);
+    }
+
+    private static String currentRouteId() {
+        Object routeId = MDC.get(HaConstants.MDC_ROUTE_ID);
+        return routeId != null ? routeId.toString() : OrchCallLog.newRouteId();
+    }
+
+    /**
+     * Puts back whatever the caller had in the MDC, so pooled or virtual threads never carry a stale id
+     * into the next call and callers with their own correlation id keep it.
+     */
+    private static void restoreRouteId(Object previous) {
+        if (previous != null) {
+            MDC.put(HaConstants.MDC_ROUTE_ID, previous);
+        } else {
+            MDC.remove(HaConstants.MDC_ROUTE_ID);
+        }
+    }
 
     private static String createRouteId() {
-        String routeId = UUID.randomUUID()
-                .toString();
+        String routeId = OrchCallLog.newRouteId();
         MDC.put(HaConstants.MDC_ROUTE_ID, routeId);
         return routeId;
     }
+
+    private static final class SharedHttpApiClient extends ApiClient {
+        @Override
+        public HttpClient getHttpClient() {
+            return OrchHttp.client();
+        }
+
+        @Override
+        public ObjectMapper getObjectMapper() {
+            return OrchJson.MAPPER;
+        }
+    }
 }
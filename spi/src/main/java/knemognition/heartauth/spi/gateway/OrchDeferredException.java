@@ -0,0 +1,14 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.ApiException;
+
+/**
+ * A background call this node chose not to make (see {@link OrchAdmission}); nothing reached the orchestrator,
+ * so callers should try again later rather than treat it as an upstream failure.
+ */
+public final class OrchDeferredException extends ApiException {
+
+    OrchDeferredException(String message) {
+        super(503, message);
+    }
+}
@@ -0,0 +1,89 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.spi.config.HaConstants;
+import org.jboss.logging.Logger;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Background reachability probe for every orchestrator base url seen on this node.
+ * <p>
+ * The probe is an unauthenticated {@code HEAD} on the base url, which the orchestrator has no route for: any
+ * HTTP answer (404 and 401 included) means it is reachable. Only transport errors, timeouts and 5xx (a proxy
+ * in front of a stopped orchestrator) count as down.
+ * <p>
+ * Results are cached so the readiness check and the authenticators can consult them without an upstream
+ * call. Urls that have not been probed yet are reported as available.
+ */
+public final class OrchHealth {
+
+    private static final Logger LOG = Logger.getLogger(OrchHealth.class);
+
+    private static final Map<String, Probe> PROBES = new ConcurrentHashMap<>();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private OrchHealth() {
+    }
+
+    public record Probe(boolean up, long checkedAtMillis, String detail) {
+    }
+
+    public static void track(String baseUri) {
+        if (baseUri == null || baseUri.isBlank()) return;
+        if (PROBES.putIfAbsent(baseUri, new Probe(true, 0L, "not probed yet")) == null) {
+            probe(baseUri);
+        }
+        if (STARTED.compareAndSet(false, true)) {
+            long period = HaConstants.HEALTH_PROBE_PERIOD.toMillis();
+            Scheduler.EXECUTOR.scheduleWithFixedDelay(OrchHealth::probeAll, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static boolean isAvailable(String baseUri) {
+        Probe probe = PROBES.get(baseUri);
+        return probe == null || probe.up();
+    }
+
+    public static Map<String, Probe> snapshot() {
+        return Map.copyOf(PROBES);
+    }
+
+    private static void probeAll() {
+        PROBES.keySet()
+                .forEach(OrchHealth::probe);
+    }
+
+    private static void probe(String baseUri) {
+        try {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(baseUri))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(HaConstants.HEALTH_PROBE_TIMEOUT)
+                    .build();
+            OrchHttp.client()
+                    .sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((res, err) -> {
+                        boolean up = err == null && res.statusCode() < 500;
+                        String detail = err != null ? err.toString() : "HTTP " + res.statusCode();
+                        Probe previous = PROBES.put(baseUri, new Probe(up, System.currentTimeMillis(), detail));
+                        if (previous != null && previous.up() != up) {
+                            LOG.warnf("Orchestrator %s is now %s (%s)", baseUri, up ? "UP" : "DOWN", detail);
+                        }
+                    });
+        } catch (Exception e) {
+            PROBES.put(baseUri, new Probe(false, System.currentTimeMillis(), e.toString()));
+        }
+    }
+
+    private static final class Scheduler {
+        private static final ScheduledExecutorService EXECUTOR =
+                Executors.newSingleThreadScheduledExecutor(HaExecutors.threadFactory("ha-orch-health-"));
+    }
+}
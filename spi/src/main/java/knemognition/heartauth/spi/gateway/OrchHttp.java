@@ -0,0 +1,107 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.spi.config.HaAttributes;
+import knemognition.heartauth.spi.config.HaConstants;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The single {@link HttpClient} shared by every {@link OrchClient} on this node.
+ * <p>
+ * Prefers HTTP/2 (h2 via ALPN, h2c via upgrade) so concurrent status polls are multiplexed over a few
+ * connections, falling back to HTTP/1.1 keep-alive when the orchestrator does not speak it.
+ */
+public final class OrchHttp {
+
+    private static final Logger LOG = Logger.getLogger(OrchHttp.class);
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(HaConstants.TRANSPORT_TIMEOUT)
+            .executor(HaExecutors.httpExecutor())
+            .proxy(new NoProxySelector())
+            .build();
+
+    private static final AtomicBoolean WARM_UP_REGISTERED = new AtomicBoolean();
+
+    private OrchHttp() {
+    }
+
+    public static HttpClient client() {
+        return CLIENT;
+    }
+
+    /**
+     * Opens connections to every configured orchestrator once the server has started, so the first logins
+     * after a deploy do not pay for TCP/TLS/h2 setup. Safe to call from several factories.
+     */
+    public static void warmUpOnStartup(KeycloakSessionFactory factory) {
+        if (!WARM_UP_REGISTERED.compareAndSet(false, true)) return;
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent) {
+                warmUp(factory);
+            }
+        });
+    }
+
+    private static void warmUp(KeycloakSessionFactory factory) {
+        Set<String> baseUris = new TreeSet<>();
+        try {
+            KeycloakModelUtils.runJobInTransaction(factory, s -> s.realms()
+                    .getRealmsStream()
+                    .map(r -> r.getAttribute(HaAttributes.STATUS_BASE_URL))
+                    .filter(v -> v != null && !v.isBlank())
+                    .forEach(v -> baseUris.add(v.trim())));
+        } catch (Exception e) {
+            LOG.warn("Could not list orchestrators to warm up", e);
+            return;
+        }
+        baseUris.forEach(OrchHttp::warmUp);
+        baseUris.forEach(OrchHealth::track);
+    }
+
+    private static void warmUp(String baseUri) {
+        try {
+            HttpRequest req = HttpRequest.newBuilder(URI.create(baseUri))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(HaConstants.TRANSPORT_TIMEOUT)
+                    .build();
+            CLIENT.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((res, err) -> {
+                        if (err != null) {
+                            LOG.warnf("Orchestrator warm-up failed for %s: %s", baseUri, err.toString());
+                        } else {
+                            LOG.infof("Orchestrator warm-up for %s done (%s)", baseUri, res.version());
+                        }
+                    });
+        } catch (IllegalArgumentException badUri) {
+            LOG.warnf("Skipping warm-up, invalid orchestrator base url: %s", baseUri);
+        }
+    }
+
+    private static final class NoProxySelector extends ProxySelector {
+        @Override
+        public List<Proxy> select(URI uri) {
+            return List.of(Proxy.NO_PROXY);
+        }
+
+        @Override
+        public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package knemognition.heartauth.spi.gateway;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+
+/**
+ * One preconfigured mapper shared by every orchestrator client on this node, instead of the per-API copy the
+ * generated {@code ApiClient} hands out. The status reader is bound up front so polls do no type resolution.
+ * Settings mirror the generated {@code ApiClient} defaults.
+ */
+public final class OrchJson {
+
+    public static final ObjectMapper MAPPER = createMapper();
+
+    public static final ObjectReader STATUS_READER = MAPPER.readerFor(StatusResponseDto.class);
+
+    private OrchJson() {
+    }
+
+    private static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.configure(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE, false);
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        mapper.enable(SerializationFeature.WRITE_ENUMS_USING_TO_STRING);
+        mapper.enable(DeserializationFeature.READ_ENUMS_USING_TO_STRING);
+        mapper.disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE);
+        mapper.registerModule(new JavaTimeModule());
+        return mapper;
+    }
+}
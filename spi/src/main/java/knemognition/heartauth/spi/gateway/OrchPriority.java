@@ -0,0 +1,15 @@
+package knemognition.heartauth.spi.gateway;
+
+/**
+ * Scheduling class of an orchestrator call: whether a user is blocked on it or it is background work.
+ */
+public enum OrchPriority {
+    /**
+     * Creates and the status check behind a form post; may wait for capacity and may use the reserved share.
+     */
+    INTERACTIVE,
+    /**
+     * Status-watch polls and bulk admin creates; never wait and are deferred as soon as capacity runs short.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,97 @@
+package knemognition.heartauth.spi.gateway;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.spi.config.HaConstants;
+import knemognition.heartauth.spi.config.HaNodeSettings;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries interactive orchestrator calls that failed transiently (I/O error, or a 502/503/504 from the
+ * orchestrator itself) with full-jitter exponential backoff.
+ * <p>
+ * Retries stop at the call's deadline and are paid from a node-wide budget: every call deposits
+ * {@code HA_ORCH_RETRY_BUDGET_PERCENT}% of a token and every retry spends a whole one, so during an outage
+ * retries add at most that share on top of regular traffic instead of multiplying it.
+ */
+final class OrchRetry {
+
+    private static final Logger LOG = Logger.getLogger(OrchRetry.class);
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 2_000;
+
+    private static final long TOKEN = 1_000;
+    private static final long DEPOSIT = TOKEN * HaNodeSettings.positiveInt(HaNodeSettings.ORCH_RETRY_BUDGET_PERCENT, 10) / 100;
+    private static final long INITIAL_BALANCE = 10 * TOKEN;
+    private static final long MAX_BALANCE = 100 * TOKEN;
+    private static final AtomicLong BALANCE = new AtomicLong(INITIAL_BALANCE);
+
+    private static final Counter RETRIED = Metrics.counter("hauth.orch.retries", "outcome", "retried");
+    private static final Counter NO_BUDGET = Metrics.counter("hauth.orch.retries", "outcome", "budget_exhausted");
+
+    private OrchRetry() {
+    }
+
+    static <T> T run(String operationId, OrchAdmission.Call<T> call) throws ApiException {
+        long deadline = System.nanoTime() + HaConstants.INTERACTIVE_RETRY_DEADLINE.toNanos();
+        deposit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (ApiException e) {
+                if (attempt >= MAX_ATTEMPTS || !isTransient(e)) throw e;
+                long sleepMs = ThreadLocalRandom.current()
+                        .nextLong(Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << attempt) + 1);
+                if (System.nanoTime() + sleepMs * 1_000_000 - deadline > 0) throw e;
+                if (!withdraw()) {
+                    NO_BUDGET.increment();
+                    throw e;
+                }
+                RETRIED.increment();
+                LOG.debugf("%s failed transiently (%s), retry %d in %d ms", operationId, e.getMessage(), attempt, sleepMs);
+                sleep(sleepMs, e);
+            }
+        }
+    }
+
+    /**
+     * Only failures that happened on the wire or were reported by an overloaded orchestrator; local
+     * rejections (admission, health probe) carry no response headers and are not retried.
+     */
+    private static boolean isTransient(ApiException e) {
+        if (e.getCode() == 0) {
+            return e.getCause() instanceof IOException;
+        }
+        return e.getResponseHeaders() != null
+                && (e.getCode() == 502 || e.getCode() == 503 || e.getCode() == 504);
+    }
+
+    private static void deposit() {
+        BALANCE.accumulateAndGet(DEPOSIT, (b, d) -> Math.min(MAX_BALANCE, b + d));
+    }
+
+    private static boolean withdraw() {
+        while (true) {
+            long b = BALANCE.get();
+            if (b < TOKEN) return false;
+            if (BALANCE.compareAndSet(b, b - TOKEN)) return true;
+        }
+    }
+
+    private static void sleep(long ms, ApiException cause) throws ApiException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ie) {
+            Thread.currentThread()
+                    .interrupt();
+            throw cause;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package knemognition.heartauth.spi.gateway;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import knemognition.heartauth.orchestrator.model.StatusEntityTypeDto;
+import knemognition.heartauth.orchestrator.model.StatusEventDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.orchestrator.model.StatusSubscriptionDto;
+import knemognition.heartauth.orchestrator.model.StatusSubscriptionUpdateDto;
+import knemognition.heartauth.spi.config.HaConstants;
+import knemognition.heartauth.spi.config.HaNodeSettings;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One long-lived status subscription per orchestrator tenant on this node, used instead of per-entity polls
+ * when {@code HA_STATUS_STREAM} is enabled.
+ * <p>
+ * Watched entities are reference-counted: the first watch of an id subscribes it on the open stream, the last
+ * one to close unsubscribes it. Every event received is kept as the latest snapshot for its id. While the
+ * stream is down no snapshots are served, so callers fall back to polling until it reconnects and
+ * resubscribes everything still watched.
+ * <p>
+ * The orchestrator sends a keep-alive every {@code HA_STATUS_STREAM_HEARTBEAT_SECONDS} (15 by default) while
+ * idle. A connection silent for {@value #MISSED_HEARTBEATS} of those is treated as dead even if TCP has not
+ * noticed yet: snapshots are dropped at once and the stream reconnects.
+ */
+final class OrchStatusStream {
+
+    private static final Logger LOG = Logger.getLogger(OrchStatusStream.class);
+
+    private static final String STREAM_PATH = "/tenants/v1/status/stream";
+    private static final String STREAM_ID_HEADER = "X-Stream-Id";
+    private static final long RECONNECT_MIN_MS = 1_000;
+    private static final long RECONNECT_MAX_MS = 30_000;
+    private static final int MISSED_HEARTBEATS = 3;
+
+    private static final ConcurrentHashMap<String, OrchStatusStream> STREAMS = new ConcurrentHashMap<>();
+    private static final ObjectReader EVENT_READER = OrchJson.MAPPER.readerFor(StatusEventDto.class);
+
+    private final String baseUri;
+    private final String apiKey;
+    private final ConcurrentHashMap<String, Integer> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StatusResponseDto> latest = new ConcurrentHashMap<>();
+    private final long heartbeatMillis;
+    private volatile String streamId;
+    private volatile InputStream body;
+    private volatile long lastReadNanos;
+    private volatile boolean started;
+
+    private OrchStatusStream(String baseUri, String apiKey) {
+        this.baseUri = baseUri;
+        this.apiKey = apiKey;
+        this.heartbeatMillis = TimeUnit.SECONDS.toMillis(
+                HaNodeSettings.positiveInt(HaNodeSettings.STATUS_STREAM_HEARTBEAT_SECONDS, 15));
+    }
+
+    static OrchStatusStream of(String baseUri, String apiKey) {
+        return STREAMS.computeIfAbsent(baseUri + '|' + apiKey, k -> new OrchStatusStream(baseUri, apiKey));
+    }
+
+    void watch(StatusEntityTypeDto type, UUID id) {
+        String key = key(type, id);
+        if (watchers.merge(key, 1, Integer::sum) == 1) {
+            ensureStarted();
+            update(List.of(subscription(type, id)), List.of());
+        }
+    }
+
+    void unwatch(StatusEntityTypeDto type, UUID id) {
+        String key = key(type, id);
+        Integer left = watchers.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+        if (left == null) {
+            latest.remove(key);
+            update(List.of(), List.of(subscription(type, id)));
+        }
+    }
+
+    /**
+     * @return the last status pushed for the entity, or {@code null} when the stream is down or has not
+     * reported it yet
+     */
+    StatusResponseDto snapshot(StatusEntityTypeDto type, UUID id) {
+        return streamId != null ? latest.get(key(type, id)) : null;
+    }
+
+    private synchronized void ensureStarted() {
+        if (started) return;
+        started = true;
+        HaExecutors.threadFactory("ha-orch-stream-")
+                .newThread(this::runForever)
+                .start();
+    }
+
+    private void runForever() {
+        long backoff = RECONNECT_MIN_MS;
+        while (!Thread.currentThread()
+                .isInterrupted()) {
+            try {
+                if (consumeOnce()) {
+                    backoff = RECONNECT_MIN_MS;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                        .interrupt();
+                return;
+            } catch (Exception e) {
+                LOG.warnf("Status stream to %s failed: %s", baseUri, e.getMessage());
+            } finally {
+                drop();
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                        .interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, RECONNECT_MAX_MS);
+        }
+    }
+
+    /**
+     * Opens the stream, resubscribes every watched entity and reads events until the connection ends or
+     * goes silent.
+     *
+     * @return {@code true} when the stream was established
+     */
+    private boolean consumeOnce() throws Exception {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(baseUri + STREAM_PATH))
+                .header("Accept", "application/x-ndjson")
+                .header(HaConstants.AUTH_HEADER, apiKey)
+                .header(HaConstants.REQUEST_ID_HEADER, OrchCallLog.newRouteId())
+                .timeout(HaConstants.TRANSPORT_TIMEOUT)
+                .GET()
+                .build();
+        HttpResponse<InputStream> res = OrchHttp.client()
+                .send(req, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = res.body()) {
+            String id = res.headers()
+                    .firstValue(STREAM_ID_HEADER)
+                    .orElse(null);
+            if (res.statusCode() != 200 || id == null) {
+                LOG.warnf("Status stream to %s refused: HTTP %d", baseUri, res.statusCode());
+                return false;
+            }
+            lastReadNanos = System.nanoTime();
+            body = in;
+            streamId = id;
+            ScheduledFuture<?> watchdog = Watchdog.EXECUTOR.scheduleWithFixedDelay(() -> checkIdle(id),
+                    heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+            try {
+                LOG.infof("Status stream %s opened to %s, resubscribing %d entities", id, baseUri, watchers.size());
+                update(watchers.keySet()
+                        .stream()
+                        .map(OrchStatusStream::subscription)
+                        .toList(), List.of());
+                BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                for (String line; (line = lines.readLine()) != null; ) {
+                    lastReadNanos = System.nanoTime();
+                    if (!line.isBlank()) {
+                        onEvent(id, line);
+                    }
+                }
+                LOG.infof("Status stream %s to %s ended", id, baseUri);
+            } catch (IOException e) {
+                if (id.equals(streamId)) throw e;
+                // closed by abort(); the reason is already logged
+            } finally {
+                watchdog.cancel(false);
+            }
+            return true;
+        }
+    }
+
+    private void checkIdle(String id) {
+        long silentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+        if (silentMillis > heartbeatMillis * MISSED_HEARTBEATS) {
+            abort(id, "no data for " + silentMillis + " ms");
+        }
+    }
+
+    /**
+     * Gives up on connection {@code id} if it is still the current one: snapshots stop being served right
+     * away and closing the body unblocks the reader, which then reconnects.
+     */
+    private void abort(String id, String reason) {
+        InputStream in = body;
+        if (in == null || !id.equals(streamId)) return;
+        LOG.warnf("Status stream %s to %s dropped: %s", id, baseUri, reason);
+        drop();
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void drop() {
+        streamId = null;
+        body = null;
+        latest.clear();
+    }
+
+    private void onEvent(String id, String line) {
+        try {
+            StatusEventDto event = EVENT_READER.readValue(line);
+            String key = key(event.getType(), event.getId());
+            if (!watchers.containsKey(key) || !id.equals(streamId)) return;
+            latest.put(key, StatusResponseDto.builder()
+                    .status(event.getStatus())
+                    .reason(event.getReason())
+                    .build());
+        } catch (Exception e) {
+            LOG.debugf("Ignoring malformed status event from %s: %s", baseUri, e.getMessage());
+        }
+    }
+
+    /**
+     * Sent asynchronously and best effort: a lost update only means the affected watches keep polling, and
+     * a reconnect resubscribes from the watched set anyway. A 404 means the orchestrator no longer knows the
+     * stream, so it is dropped and reopened.
+     */
+    private void update(List<StatusSubscriptionDto> subscribe, List<StatusSubscriptionDto> unsubscribe) {
+        String id = streamId;
+        if (id == null || (subscribe.isEmpty() && unsubscribe.isEmpty())) return;
+        try {
+            byte[] body = OrchJson.MAPPER.writeValueAsBytes(StatusSubscriptionUpdateDto.builder()
+                    .subscribe(subscribe)
+                    .unsubscribe(unsubscribe)
+                    .build());
+            HttpRequest req = HttpRequest.newBuilder(URI.create(baseUri + STREAM_PATH + "/" + id + "/subscriptions"))
+                    .header("Content-Type", "application/json")
+                    .header(HaConstants.AUTH_HEADER, apiKey)
+                    .timeout(HaConstants.TRANSPORT_TIMEOUT)
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            OrchHttp.client()
+                    .sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((res, err) -> {
+                        if (err == null && res.statusCode() == 404) {
+                            abort(id, "orchestrator no longer knows the stream");
+                        } else if (err != null || res.statusCode() / 100 != 2) {
+                            LOG.warnf("Status stream %s subscription update failed: %s", id,
+                                    err != null ? err.getMessage() : "HTTP " + res.statusCode());
+                        }
+                    });
+        } catch (Exception e) {
+            LOG.warnf("Status stream %s subscription update not sent: %s", id, e.getMessage());
+        }
+    }
+
+    private static String key(StatusEntityTypeDto type, UUID id) {
+        return type.getValue() + ':' + id;
+    }
+
+    private static StatusSubscriptionDto subscription(String key) {
+        int sep = key.indexOf(':');
+        return subscription(StatusEntityTypeDto.fromValue(key.substring(0, sep)),
+                UUID.fromString(key.substring(sep + 1)));
+    }
+
+    private static StatusSubscriptionDto subscription(StatusEntityTypeDto type, UUID id) {
+        return StatusSubscriptionDto.builder()
+                .type(type)
+                .id(id)
+                .build();
+    }
+
+    private static final class Watchdog {
+        private static final ScheduledExecutorService EXECUTOR =
+                Executors.newSingleThreadScheduledExecutor(HaExecutors.threadFactory("ha-orch-stream-watchdog-"));
+    }
+}
@@ -0,0 +1,30 @@
+package knemognition.heartauth.spi.gateway;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.HealthCheckResponseBuilder;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Exposes the cached {@link OrchHealth} probes on Keycloak's management interface ({@code /health/ready}),
+ * so the pod is taken out of rotation while its orchestrators are unreachable. Never calls upstream itself.
+ */
+@Readiness
+@ApplicationScoped
+public class OrchestratorReadinessCheck implements HealthCheck {
+
+    @Override
+    public HealthCheckResponse call() {
+        HealthCheckResponseBuilder builder = HealthCheckResponse.named("heartauth-orchestrator")
+                .up();
+        OrchHealth.snapshot()
+                .forEach((baseUri, probe) -> {
+                    builder.withData(baseUri, (probe.up() ? "UP" : "DOWN") + " " + probe.detail());
+                    if (!probe.up()) {
+                        builder.down();
+                    }
+                });
+        return builder.build();
+    }
+}
@@ -0,0 +1,111 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.spi.config.ResendLimit;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local limiter for resend submissions, checked before any orchestrator call.
+ * <p>
+ * Each key is a token bucket kept as a single "theoretical arrival time" (GCRA), updated with a CAS, so
+ * the hot path takes no locks. User and client-address buckets live in separate tables, so a flood of one
+ * kind cannot push the other out. Each table is spread over independent stripes; a stripe that grows past
+ * its share of the bound drops idle buckets first and then the ones closest to refilled.
+ */
+public final class ResendLimiter {
+
+    private static final Buckets USERS = new Buckets();
+    private static final Buckets ADDRESSES = new Buckets();
+
+    private ResendLimiter() {
+    }
+
+    /**
+     * Takes one token from both the user's and the client address' bucket, or from neither.
+     *
+     * @return {@code true} when the resend may proceed
+     */
+    public static boolean tryAcquire(String realmId, String userId, String remoteAddr, ResendLimit limit) {
+        long now = System.nanoTime();
+        long interval = TimeUnit.MINUTES.toNanos(1) / limit.perMinute();
+        long capacity = interval * limit.burst();
+
+        AtomicLong user = userId == null ? null : USERS.bucket(realmId + ":" + userId, now);
+        AtomicLong address = remoteAddr == null ? null : ADDRESSES.bucket(realmId + ":" + remoteAddr, now);
+        if (!admits(user, now, interval, capacity) || !admits(address, now, interval, capacity)) {
+            return false;
+        }
+        if (!take(user, now, interval, capacity)) {
+            return false;
+        }
+        if (!take(address, now, interval, capacity)) {
+            // lost a race for the address' last token: hand the user's back
+            user.addAndGet(-interval);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean admits(AtomicLong tat, long now, long interval, long capacity) {
+        return tat == null || Math.max(tat.get(), now) + interval - now <= capacity;
+    }
+
+    private static boolean take(AtomicLong tat, long now, long interval, long capacity) {
+        if (tat == null) return true;
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + interval;
+            if (next - now > capacity) {
+                return false;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static final class Buckets {
+        private static final int STRIPES = 16;
+        private static final int MAX_KEYS_PER_STRIPE = 4_096;
+        private static final int KEEP_AFTER_EVICTION = MAX_KEYS_PER_STRIPE * 3 / 4;
+
+        @SuppressWarnings("unchecked")
+        private final ConcurrentHashMap<String, AtomicLong>[] stripes = new ConcurrentHashMap[STRIPES];
+
+        Buckets() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ConcurrentHashMap<>();
+            }
+        }
+
+        AtomicLong bucket(String key, long now) {
+            int h = key.hashCode();
+            ConcurrentHashMap<String, AtomicLong> stripe = stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+            AtomicLong tat = stripe.get(key);
+            if (tat != null) return tat;
+            if (stripe.size() >= MAX_KEYS_PER_STRIPE) {
+                sweep(stripe, now);
+            }
+            return stripe.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        private static void sweep(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+            stripe.values()
+                    .removeIf(tat -> tat.get() - now <= 0);
+            if (stripe.size() < MAX_KEYS_PER_STRIPE) return;
+            // every bucket is still draining: evict the ones that will be full again soonest
+            long[] tats = stripe.values()
+                    .stream()
+                    .mapToLong(AtomicLong::get)
+                    .toArray();
+            if (tats.length <= KEEP_AFTER_EVICTION) return;
+            Arrays.sort(tats);
+            long cutoff = tats[tats.length - KEEP_AFTER_EVICTION - 1];
+            stripe.values()
+                    .removeIf(tat -> tat.get() - cutoff <= 0);
+        }
+    }
+}
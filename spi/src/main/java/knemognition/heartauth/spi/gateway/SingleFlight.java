@@ -0,0 +1,128 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.spi.config.HaConstants;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent creates for the same key (typically one authentication session tab) into a
+ * single orchestrator call.
+ * <p>
+ * Callers arriving while a create is in flight, or shortly after it completed, receive the same result.
+ * Every logical create carries an idempotency key; a create that failed is retried with the same key,
+ * so the orchestrator can return the resource it may already have created before the failure.
+ * <p>
+ * Followers wait as long as the leader's call can take ({@link HaConstants#INTERACTIVE_CALL_DEADLINE}),
+ * so a slow leader is never duplicated by followers giving up and creating on their own.
+ */
+public final class SingleFlight<T> {
+
+    private static final int PURGE_THRESHOLD = 10_000;
+    private static final long FOLLOWER_GRACE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<String, Flight<T>> flights = new ConcurrentHashMap<>();
+    private final long shareWindowNanos;
+    private final long retryWindowNanos;
+
+    public SingleFlight() {
+        this.shareWindowNanos = HaConstants.CREATE_SHARE_WINDOW.toNanos();
+        this.retryWindowNanos = HaConstants.INTERACTIVE_CALL_DEADLINE.multipliedBy(2)
+                .toNanos();
+    }
+
+    @FunctionalInterface
+    public interface Call<T> {
+        T call(String idempotencyKey) throws ApiException;
+    }
+
+    public T run(String key, Call<T> call) throws ApiException {
+        if (flights.size() > PURGE_THRESHOLD) {
+            purge();
+        }
+        long now = System.nanoTime();
+        Flight<T> mine = new Flight<>();
+        Flight<T> current = flights.compute(key, (k, cur) -> {
+            if (cur != null && cur.isShareable(now, shareWindowNanos)) {
+                return cur;
+            }
+            mine.idempotencyKey = cur != null && cur.isRetryable(now, retryWindowNanos)
+                    ? cur.idempotencyKey
+                    : UUID.randomUUID()
+                    .toString();
+            mine.deadlineNanos = now + HaConstants.INTERACTIVE_CALL_DEADLINE.toNanos();
+            return mine;
+        });
+        if (current != mine) {
+            return current.await();
+        }
+        try {
+            T value = call.call(mine.idempotencyKey);
+            mine.completedAt = System.nanoTime();
+            mine.future.complete(value);
+            return value;
+        } catch (ApiException | RuntimeException e) {
+            mine.completedAt = System.nanoTime();
+            mine.failed = true;
+            mine.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets the last create for this key, so the next {@link #run} always issues a new one.
+     */
+    public void reset(String key) {
+        flights.remove(key);
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        flights.values()
+                .removeIf(f -> f.isDone() && now - f.completedAt > retryWindowNanos);
+    }
+
+    private static final class Flight<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private String idempotencyKey;
+        private long deadlineNanos;
+        private volatile long completedAt;
+        private volatile boolean failed;
+
+        boolean isDone() {
+            return future.isDone();
+        }
+
+        boolean isShareable(long now, long window) {
+            if (!future.isDone()) return true;
+            return !failed && now - completedAt <= window;
+        }
+
+        boolean isRetryable(long now, long window) {
+            return failed && now - completedAt <= window;
+        }
+
+        T await() throws ApiException {
+            try {
+                long waitNanos = deadlineNanos - System.nanoTime() + FOLLOWER_GRACE_NANOS;
+                return future.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ApiException api) throw api;
+                if (cause instanceof RuntimeException re) throw re;
+                throw new ApiException(cause);
+            } catch (TimeoutException e) {
+                throw new ApiException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                        .interrupt();
+                throw new ApiException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last status version (ETag and body) seen per polled entity, so the next poll can be conditional and a
+ * {@code 304 Not Modified} answered from memory without reading a body.
+ * <p>
+ * Keyed by the full status url, orchestrator base url included, so realms talking to different orchestrators
+ * never share an entry. Entries are spread over independent stripes; a stripe that grows past its share of the
+ * bound drops entries no watch has used for a while first and then the least recently used ones, so a full
+ * table costs a few watches one unconditional poll each rather than all of them at once.
+ */
+final class StatusVersions {
+
+    private static final int STRIPES = 16;
+    private static final int MAX_ENTRIES_PER_STRIPE = 4_096;
+    private static final int KEEP_AFTER_EVICTION = MAX_ENTRIES_PER_STRIPE * 3 / 4;
+    // Well past the longest poll period and backoff: nobody is polling this entity any more.
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentHashMap<String, Version>[] VERSIONS = new ConcurrentHashMap[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            VERSIONS[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    private StatusVersions() {
+    }
+
+    static final class Version {
+        private final String etag;
+        private final StatusResponseDto status;
+        private volatile long lastUsedNanos;
+
+        private Version(String etag, StatusResponseDto status, long now) {
+            this.etag = etag;
+            this.status = status;
+            this.lastUsedNanos = now;
+        }
+
+        String etag() {
+            return etag;
+        }
+
+        StatusResponseDto status() {
+            return status;
+        }
+    }
+
+    /**
+     * @param url the full status url polled, see {@link #put}
+     */
+    static Version get(String url) {
+        Version v = stripe(url).get(url);
+        if (v != null) {
+            v.lastUsedNanos = System.nanoTime();
+        }
+        return v;
+    }
+
+    static void put(String url, String etag, StatusResponseDto status) {
+        ConcurrentHashMap<String, Version> stripe = stripe(url);
+        if (etag == null || etag.isBlank()) {
+            stripe.remove(url);
+            return;
+        }
+        long now = System.nanoTime();
+        if (stripe.size() >= MAX_ENTRIES_PER_STRIPE && !stripe.containsKey(url)) {
+            sweep(stripe, now);
+        }
+        stripe.put(url, new Version(etag, status, now));
+    }
+
+    static void remove(String url) {
+        stripe(url).remove(url);
+    }
+
+    static int size() {
+        int n = 0;
+        for (ConcurrentHashMap<String, Version> stripe : VERSIONS) {
+            n += stripe.size();
+        }
+        return n;
+    }
+
+    private static ConcurrentHashMap<String, Version> stripe(String url) {
+        int h = url.hashCode();
+        return VERSIONS[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static void sweep(ConcurrentHashMap<String, Version> stripe, long now) {
+        stripe.values()
+                .removeIf(v -> now - v.lastUsedNanos > IDLE_NANOS);
+        if (stripe.size() < MAX_ENTRIES_PER_STRIPE) return;
+        // every entry is still being polled: evict the least recently used
+        long[] used = stripe.values()
+                .stream()
+                .mapToLong(v -> v.lastUsedNanos)
+                .toArray();
+        if (used.length <= KEEP_AFTER_EVICTION) return;
+        Arrays.sort(used);
+        long cutoff = used[used.length - KEEP_AFTER_EVICTION - 1];
+        stripe.values()
+                .removeIf(v -> v.lastUsedNanos - cutoff <= 0);
+    }
+}
@@ -0,0 +1,260 @@
+package knemognition.heartauth.spi.registerDevice;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import knemognition.heartauth.orchestrator.model.CreatePairingResponseDto;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.OrchDeferredException;
+import knemognition.heartauth.spi.gateway.OrchJson;
+import knemognition.heartauth.spi.gateway.OrchPriority;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admin endpoint creating device pairings for many existing users at once, for offline QR distribution.
+ * <p>
+ * The request body lists one user id (or username) per line. Users are resolved in chunks, at most
+ * {@code parallelism} pairings are in flight, and every result is written as one NDJSON line as soon as it
+ * completes, so memory use does not depend on the size of the batch.
+ * <p>
+ * Creates run at {@link OrchPriority#BACKGROUND}: a pairing deferred because login traffic needs the
+ * capacity is retried after a short pause instead of failing its line. Pairings live for {@code ttlSeconds},
+ * independent of the realm's interactive pairing TTL but within the orchestrator's bounds for a pairing
+ * (30 to 300 seconds, see {@code CreatePairingRequest} in tenants.yml), so the QR codes must be handed out
+ * right after the run. The run stops as soon as the admin's connection is gone.
+ */
+public class BulkPairingResource {
+
+    private static final Logger LOG = Logger.getLogger(BulkPairingResource.class);
+
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int MAX_PARALLELISM = 32;
+    private static final int LOOKUP_CHUNK = 100;
+    private static final int MIN_TTL_SECONDS = 30;
+    private static final int MAX_TTL_SECONDS = 300;
+    private static final long MAX_DEFERRAL_MS = 60_000;
+    private static final long DEFERRAL_PAUSE_MS = 250;
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final AdminPermissionEvaluator auth;
+
+    public BulkPairingResource(KeycloakSession session, RealmModel realm, AdminPermissionEvaluator auth) {
+        this.session = session;
+        this.realm = realm;
+        this.auth = auth;
+    }
+
+    @POST
+    @Path("bulk")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(NDJSON)
+    public Response createPairings(@QueryParam("parallelism") @DefaultValue("8") int parallelism,
+                                   @QueryParam("ttlSeconds") @DefaultValue("300") int ttlSeconds,
+                                   InputStream body) {
+        auth.users()
+                .requireManage();
+        if (parallelism < 1 || parallelism > MAX_PARALLELISM) {
+            throw new BadRequestException("parallelism must be between 1 and " + MAX_PARALLELISM);
+        }
+        if (ttlSeconds < MIN_TTL_SECONDS || ttlSeconds > MAX_TTL_SECONDS) {
+            throw new BadRequestException("ttlSeconds must be between " + MIN_TTL_SECONDS + " and " + MAX_TTL_SECONDS);
+        }
+        return Response.ok(pairingStream(parallelism, ttlSeconds, body), NDJSON)
+                .build();
+    }
+
+    StreamingOutput pairingStream(int parallelism, int ttlSeconds, InputStream body) {
+        OrchClient orchestrator = OrchClient.clientFromRealm(realm);
+        KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+        String realmId = realm.getId();
+
+        return raw -> {
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism,
+                    HaExecutors.threadFactory("ha-bulk-pairing-"));
+            Semaphore inFlight = new Semaphore(parallelism);
+            LineWriter out = new LineWriter(raw, pool);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                List<String> chunk = new ArrayList<>(LOOKUP_CHUNK);
+                String line;
+                while (!out.failed() && (line = reader.readLine()) != null) {
+                    String ref = line.trim();
+                    if (ref.isEmpty() || ref.startsWith("#")) continue;
+                    chunk.add(ref);
+                    if (chunk.size() == LOOKUP_CHUNK) {
+                        dispatch(factory, realmId, chunk, orchestrator, ttlSeconds, pool, inFlight, out);
+                        chunk.clear();
+                    }
+                }
+                dispatch(factory, realmId, chunk, orchestrator, ttlSeconds, pool, inFlight, out);
+                // Tasks dropped by shutdownNow never release their permit, so stop waiting once the client is gone.
+                while (!inFlight.tryAcquire(parallelism, 100, TimeUnit.MILLISECONDS) && !out.failed()) {
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread()
+                        .interrupt();
+            } finally {
+                pool.shutdownNow();
+            }
+            if (!out.failed()) {
+                raw.flush();
+            }
+        };
+    }
+
+    private static void dispatch(KeycloakSessionFactory factory,
+                                 String realmId,
+                                 List<String> refs,
+                                 OrchClient orchestrator,
+                                 int ttlSeconds,
+                                 ExecutorService pool,
+                                 Semaphore inFlight,
+                                 LineWriter out) throws InterruptedException {
+        if (refs.isEmpty() || out.failed()) return;
+        List<Target> targets = KeycloakModelUtils.runJobInTransactionWithResult(factory, s -> {
+            RealmModel r = s.realms()
+                    .getRealm(realmId);
+            List<Target> resolved = new ArrayList<>(refs.size());
+            for (String ref : refs) {
+                UserModel user = s.users()
+                        .getUserById(r, ref);
+                if (user == null) {
+                    user = s.users()
+                            .getUserByUsername(r, ref);
+                }
+                resolved.add(user == null
+                        ? new Target(ref, null, null)
+                        : new Target(ref, user.getId(), user.getUsername()));
+            }
+            return resolved;
+        });
+
+        for (Target target : targets) {
+            if (out.failed()) return;
+            if (target.userId() == null) {
+                out.write(new Line(target.ref(), null, null, null, null, null, "user not found"));
+                continue;
+            }
+            inFlight.acquire();
+            if (out.failed()) {
+                inFlight.release();
+                return;
+            }
+            pool.execute(() -> {
+                try {
+                    CreatePairingResponseDto res = createPaced(orchestrator, target, ttlSeconds, out);
+                    if (res != null) {
+                        out.write(new Line(target.ref(), target.userId(), target.username(), res.getJti()
+                                .toString(), res.getJwt(), res.getExp(), null));
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread()
+                            .interrupt();
+                } catch (Exception e) {
+                    LOG.debugf(e, "Bulk pairing failed for %s", target.ref());
+                    out.write(new Line(target.ref(), target.userId(), target.username(), null, null, null,
+                            e.getMessage()));
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates one pairing, pausing while the node defers background calls. Returns {@code null} if the
+     * admin disconnected in the meantime.
+     */
+    private static CreatePairingResponseDto createPaced(OrchClient orchestrator, Target target, int ttlSeconds,
+                                                        LineWriter out) throws Exception {
+        UUID userId = UUID.fromString(target.userId());
+        String idempotencyKey = UUID.randomUUID()
+                .toString();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DEFERRAL_MS);
+        while (true) {
+            try {
+                return orchestrator.createPairing(userId, target.username(), idempotencyKey, ttlSeconds,
+                        OrchPriority.BACKGROUND);
+            } catch (OrchDeferredException deferred) {
+                if (System.nanoTime() - deadline > 0) throw deferred;
+                Thread.sleep(DEFERRAL_PAUSE_MS + ThreadLocalRandom.current()
+                        .nextLong(DEFERRAL_PAUSE_MS));
+                if (out.failed()) return null;
+            }
+        }
+    }
+
+    /**
+     * Serialises NDJSON lines onto the response. The first write error means the admin is gone: it is
+     * remembered, no further lines are attempted, and the pool is stopped so queued pairings are not created.
+     */
+    private static final class LineWriter {
+        private final OutputStream out;
+        private final ExecutorService pool;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        LineWriter(OutputStream out, ExecutorService pool) {
+            this.out = out;
+            this.pool = pool;
+        }
+
+        boolean failed() {
+            return failed.get();
+        }
+
+        void write(Line line) {
+            if (failed()) return;
+            try {
+                byte[] bytes = OrchJson.MAPPER.writeValueAsBytes(line);
+                synchronized (out) {
+                    if (failed()) return;
+                    out.write(bytes);
+                    out.write('\n');
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (failed.compareAndSet(false, true)) {
+                    LOG.infof("Bulk pairing client went away, stopping: %s", e.getMessage());
+                    pool.shutdownNow();
+                }
+            }
+        }
+    }
+
+    private record Target(String ref, String userId, String username) {
+    }
+
+    private record Line(String ref, String userId, String username, String jti, String jwt, Long exp,
+                        String error) {
+    }
+}
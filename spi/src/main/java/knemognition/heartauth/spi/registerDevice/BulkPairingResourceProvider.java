@@ -0,0 +1,22 @@
+package knemognition.heartauth.spi.registerDevice;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+
+public class BulkPairingResourceProvider implements AdminRealmResourceProvider {
+
+    @Override
+    public Object getResource(KeycloakSession session,
+                              RealmModel realm,
+                              AdminPermissionEvaluator auth,
+                              AdminEventBuilder adminEvent) {
+        return new BulkPairingResource(session, realm, auth);
+    }
+
+    @Override
+    public void close() {
+    }
+}
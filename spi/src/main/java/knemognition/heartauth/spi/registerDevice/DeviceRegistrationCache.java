@@ -0,0 +1,47 @@
+package knemognition.heartauth.spi.registerDevice;
+
+import knemognition.heartauth.spi.config.HaConstants;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local record of users already known to have a registered device, so {@code evaluateTriggers}
+ * does not read user attributes on every login. Only the positive state is cached, entries expire after
+ * {@link HaConstants#DEVICE_REGISTRATION_CACHE_TTL} and are dropped whenever the registration state of the
+ * user is written or the user is removed.
+ */
+final class DeviceRegistrationCache {
+
+    private static final int MAX_ENTRIES = 100_000;
+
+    private static final ConcurrentHashMap<String, Long> REGISTERED = new ConcurrentHashMap<>();
+
+    private DeviceRegistrationCache() {
+    }
+
+    static boolean isRegistered(String userId) {
+        Long expiresAt = REGISTERED.get(userId);
+        if (expiresAt == null) return false;
+        if (System.nanoTime() - expiresAt > 0) {
+            REGISTERED.remove(userId, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    static void markRegistered(String userId) {
+        if (REGISTERED.size() >= MAX_ENTRIES) {
+            long now = System.nanoTime();
+            REGISTERED.values()
+                    .removeIf(expiresAt -> now - expiresAt > 0);
+            if (REGISTERED.size() >= MAX_ENTRIES) return;
+        }
+        REGISTERED.put(userId, System.nanoTime() + HaConstants.DEVICE_REGISTRATION_CACHE_TTL.toNanos());
+    }
+
+    static void invalidate(String userId) {
+        if (userId != null) {
+            REGISTERED.remove(userId);
+        }
+    }
+}
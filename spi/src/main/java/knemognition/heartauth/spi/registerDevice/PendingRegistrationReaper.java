@@ -0,0 +1,143 @@
+package knemognition.heartauth.spi.registerDevice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import knemognition.heartauth.spi.config.HaNodeSettings;
+import knemognition.heartauth.spi.config.HaRealmSettings;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes users that started device registration but never came back to finish it.
+ * <p>
+ * Runs on one cluster node at a time, only for realms that set
+ * {@code ha-registration.pending-max-age-hours}. Age is counted from when the user was marked pending, not
+ * from account creation, so an old account that only now starts registration gets the full window. Users are read page by page and each page is deleted in
+ * its own transaction; {@code HA_REAPER_MAX_PER_RUN} and {@code HA_REAPER_BATCH_PAUSE_MS} bound the load
+ * one run can put on the database.
+ */
+public class PendingRegistrationReaper implements ScheduledTask {
+
+    public static final String TASK_NAME = "hauth-pending-registration-reaper";
+
+    private static final Logger LOG = Logger.getLogger(PendingRegistrationReaper.class);
+
+    private static final Counter SCANNED = Metrics.counter("hauth.registration.reaper.scanned");
+    private static final Counter DELETED = Metrics.counter("hauth.registration.reaper.deleted");
+    private static final Counter FAILED = Metrics.counter("hauth.registration.reaper.failed");
+
+    private final int batchSize = HaNodeSettings.positiveInt(HaNodeSettings.REAPER_BATCH_SIZE, 100);
+    private final int maxPerRun = HaNodeSettings.positiveInt(HaNodeSettings.REAPER_MAX_PER_RUN, 1_000);
+    private final long pauseMillis = HaNodeSettings.positiveInt(HaNodeSettings.REAPER_BATCH_PAUSE_MS, 200);
+
+    public static long intervalMillis() {
+        return Duration.ofSeconds(HaNodeSettings.positiveInt(HaNodeSettings.REAPER_INTERVAL_SECONDS, 3_600))
+                .toMillis();
+    }
+
+    @Override
+    public String getTaskName() {
+        return TASK_NAME;
+    }
+
+    @Override
+    public void run(KeycloakSession session) {
+        KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+        List<String> realmIds = session.realms()
+                .getRealmsStream()
+                .filter(PendingRegistrationReaper::isEnabled)
+                .map(RealmModel::getId)
+                .toList();
+
+        int budget = maxPerRun;
+        for (String realmId : realmIds) {
+            if (budget <= 0) break;
+            try {
+                budget -= reapRealm(factory, realmId, budget);
+            } catch (InterruptedException e) {
+                Thread.currentThread()
+                        .interrupt();
+                LOG.infof("Pending registration reaper interrupted in realm %s, stopping", realmId);
+                return;
+            } catch (Exception e) {
+                FAILED.increment();
+                LOG.warnf(e, "Pending registration reaper failed for realm %s", realmId);
+            }
+        }
+    }
+
+    private int reapRealm(KeycloakSessionFactory factory, String realmId, int budget) throws InterruptedException {
+        int deleted = 0;
+        int offset = 0;
+        while (deleted < budget) {
+            int first = offset;
+            int limit = Math.min(batchSize, budget - deleted);
+            Batch batch = KeycloakModelUtils.runJobInTransactionWithResult(factory,
+                    s -> reapBatch(s, realmId, first, limit));
+            SCANNED.increment(batch.scanned());
+            DELETED.increment(batch.deleted());
+            deleted += batch.deleted();
+            if (batch.scanned() < limit) break;
+            // Deleted users drop out of the result set; skipped ones stay and are stepped over.
+            offset += batch.scanned() - batch.deleted();
+            Thread.sleep(pauseMillis);
+        }
+        if (deleted > 0) {
+            LOG.infof("Removed %d abandoned pending registrations in realm %s", deleted, realmId);
+        }
+        return deleted;
+    }
+
+    static Batch reapBatch(KeycloakSession s, String realmId, int first, int max) {
+        RealmModel realm = s.realms()
+                .getRealm(realmId);
+        if (realm == null) return new Batch(0, 0);
+        s.getContext()
+                .setRealm(realm);
+        Duration maxAge = HaRealmSettings.pendingRegistrationMaxAge(realm);
+        if (maxAge == null) return new Batch(0, 0);
+        long cutoff = System.currentTimeMillis() - maxAge.toMillis();
+
+        List<UserModel> page = s.users()
+                .searchForUserStream(realm, Map.of(RegisterDeviceRequiredAction.REG_PENDING, "true"), first, max)
+                .toList();
+        int deleted = 0;
+        for (UserModel user : page) {
+            if ("true".equals(user.getFirstAttribute(RegisterDeviceRequiredAction.DEV_REGISTERED))) continue;
+            Long since = RegisterDeviceRequiredAction.pendingSince(user);
+            if (since == null) {
+                // Marked before the timestamp existed: start its window now rather than guess.
+                RegisterDeviceRequiredAction.markPendingSince(user, System.currentTimeMillis());
+                continue;
+            }
+            if (since > cutoff) continue;
+            DeviceRegistrationCache.invalidate(user.getId());
+            if (s.users()
+                    .removeUser(realm, user)) {
+                deleted++;
+            }
+        }
+        return new Batch(page.size(), deleted);
+    }
+
+    private static boolean isEnabled(RealmModel realm) {
+        try {
+            return HaRealmSettings.pendingRegistrationMaxAge(realm) != null;
+        } catch (IllegalStateException badCfg) {
+            LOG.warn(badCfg.getMessage());
+            return false;
+        }
+    }
+
+    record Batch(int scanned, int deleted) {
+    }
+}
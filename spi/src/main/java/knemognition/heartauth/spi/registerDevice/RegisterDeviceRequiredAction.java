@@ -3,19 +3,29 @@ package knemognition.heartauth.spi.registerDevice;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.UriBuilder;
 import knemognition.heartauth.orchestrator.ApiException;
 import knemognition.heartauth.orchestrator.model.CreatePairingResponseDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.spi.config.HaFlowState;
+import knemognition.heartauth.spi.config.HaRealmSettings;
 import knemognition.heartauth.spi.config.HaSessionNotes;
 import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.ResendLimiter;
+import knemognition.heartauth.spi.gateway.SingleFlight;
+import knemognition.heartauth.spi.status.QrPayloadCache;
+import knemognition.heartauth.spi.status.StatusSnapshotStore;
 import knemognition.heartauth.spi.status.StatusWatchRegistry;
 import knemognition.heartauth.spi.status.StatusWatchResourceProviderFactory;
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.RequiredActionContext;
 import org.keycloak.authentication.RequiredActionProvider;
+import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.UserModel;
 import org.keycloak.protocol.oidc.OIDCLoginProtocol;
 import org.keycloak.services.managers.AuthenticationManager;
 import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.tracing.TracingProviderUtil;
 
 import java.net.URI;
 import java.util.Optional;
@@ -24,55 +34,75 @@ import java.util.UUID;
 public class RegisterDeviceRequiredAction implements RequiredActionProvider {
 
     private static final Logger LOG = Logger.getLogger(RegisterDeviceRequiredAction.class);
+    private static final SingleFlight<CreatePairingResponseDto> CREATES = new SingleFlight<>();
+    private static final String RESEND_LIMITED = "Too many resend requests. Please wait a moment and try again.";
 
-    private static final String REG_PENDING = "hauthRegistrationPending";
-    private static final String DEV_REGISTERED = "hauthDeviceRegistered";
+    static final String REG_PENDING = "hauthRegistrationPending";
+    static final String REG_PENDING_SINCE = "hauthRegistrationPendingSince";
+    static final String DEV_REGISTERED = "hauthDeviceRegistered";
 
-    private void requestNewPairing(RequiredActionContext ctx) throws ApiException {
+    private HaFlowState requestNewPairing(RequiredActionContext ctx) throws ApiException {
         AuthenticationSessionModel sess = ctx.getAuthenticationSession();
-        closeActivePairingWatch(sess);
+        HaFlowState previous = readState(sess);
         OrchClient oc = OrchClient.clientFromRealm(ctx.getRealm());
+        oc.ensureAvailable();
         String username = ctx.getUser()
                 .getUsername();
         UUID userId = UUID.fromString(ctx.getUser()
                 .getId());
 
-        CreatePairingResponseDto res = oc.createPairing(userId, username);
-        sess.setAuthNote(HaSessionNotes.PAIRING_JTI, res.getJti()
-                .toString());
-        sess.setAuthNote(HaSessionNotes.PAIRING_JWT, res.getJwt());
-        sess.setAuthNote(HaSessionNotes.TTL, String.valueOf(res.getTtl()));
-        sess.setAuthNote(HaSessionNotes.EXP, String.valueOf(res.getExp()));
-        ;
+        CreatePairingResponseDto res = CREATES.run(flightKey(sess), key -> oc.createPairing(userId, username, key));
+        String jti = res.getJti()
+                .toString();
+        if (previous != null) {
+            if (previous.id()
+                    .equals(jti)) {
+                return previous;
+            }
+            StatusWatchRegistry.closePairing(sess, previous.id());
+        }
+        HaFlowState state = new HaFlowState(jti, res.getTtl(), res.getExp(), res.getJwt());
+        sess.setAuthNote(HaSessionNotes.PAIRING_STATE, state.encode());
+        return state;
     }
 
     @Override
     public void evaluateTriggers(RequiredActionContext ctx) {
         UserModel user = ctx.getUser();
+        if (DeviceRegistrationCache.isRegistered(user.getId())) {
+            return;
+        }
         if (!isDeviceRegistered(user)) {
             user.addRequiredAction(RegisterDeviceRequiredActionFactory.ID);
         } else {
             user.removeRequiredAction(RegisterDeviceRequiredActionFactory.ID);
+            DeviceRegistrationCache.markRegistered(user.getId());
         }
     }
 
     @Override
     public void requiredActionChallenge(RequiredActionContext ctx) {
+        TracingProviderUtil.getTracingProvider(ctx.getSession())
+                .trace(RegisterDeviceRequiredAction.class, "requiredActionChallenge", span -> {
+                    doChallenge(ctx);
+                });
+    }
+
+    private void doChallenge(RequiredActionContext ctx) {
         try {
             AuthenticationSessionModel sess = ctx.getAuthenticationSession();
 
             ensurePendingRegistration(ctx.getUser());
 
-            String existingJti = sess.getAuthNote(HaSessionNotes.PAIRING_JTI);
-            String existingJwt = sess.getAuthNote(HaSessionNotes.PAIRING_JWT);
-            if (existingJti != null && !existingJti.isBlank() && existingJwt != null) {
-                closeActivePairingWatch(sess);
-                render(ctx);
+            HaFlowState existing = readState(sess);
+            if (existing != null && existing.payload() != null) {
+                // Same pairing rendered again: the new page watches this id too.
+                StatusWatchRegistry.disconnectPairing(sess, existing.id());
+                render(ctx, existing);
                 return;
             }
 
-            requestNewPairing(ctx);
-            render(ctx);
+            render(ctx, requestNewPairing(ctx));
 
         } catch (IllegalArgumentException iae) {
             LOG.error("RegisterDevice: missing/invalid realm attributes for JWT", iae);
@@ -100,12 +130,24 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
 
     @Override
     public void processAction(RequiredActionContext ctx) {
+        TracingProviderUtil.getTracingProvider(ctx.getSession())
+                .trace(RegisterDeviceRequiredAction.class, "processAction", span -> {
+                    doProcessAction(ctx);
+                });
+    }
+
+    private void doProcessAction(RequiredActionContext ctx) {
         MultivaluedMap<String, String> formParams = ctx.getHttpRequest()
                 .getDecodedFormParameters();
         if (formParams != null && "true".equalsIgnoreCase(formParams.getFirst("resend"))) {
+            if (!resendAllowed(ctx)) {
+                LOG.infof("RegisterDevice: resend rate-limited for user %s", ctx.getUser()
+                        .getId());
+                rejectResend(ctx);
+                return;
+            }
             try {
-                requestNewPairing(ctx);
-                render(ctx);
+                render(ctx, requestNewPairing(ctx));
                 return;
             } catch (IllegalArgumentException iae) {
                 LOG.error("RegisterDevice: missing/invalid realm attributes for JWT on resend", iae);
@@ -135,8 +177,8 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
         }
 
         AuthenticationSessionModel as = ctx.getAuthenticationSession();
-        String jtiStr = as.getAuthNote(HaSessionNotes.PAIRING_JTI);
-        if (jtiStr == null || jtiStr.isBlank()) {
+        HaFlowState state = readState(as);
+        if (state == null) {
             ctx.challenge(ctx.form()
                     .setError("Missing token.")
                     .createErrorPage(Status.INTERNAL_SERVER_ERROR));
@@ -144,8 +186,12 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
         }
 
         try {
-            OrchClient oc = OrchClient.clientFromRealm(ctx.getRealm());
-            var st = oc.getPairingStatus(UUID.fromString(jtiStr));
+            StatusResponseDto st = StatusSnapshotStore.lookup(ctx.getSession(), StatusWatchRegistry.TYPE_PAIRING,
+                    state.id());
+            if (st == null) {
+                st = OrchClient.clientFromRealm(ctx.getRealm())
+                        .getPairingStatus(UUID.fromString(state.id()));
+            }
 
             switch (st.getStatus()) {
                 case APPROVED -> {
@@ -172,7 +218,7 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
                         );
                     }
                 }
-                case PENDING, CREATED -> render(ctx);
+                case PENDING, CREATED -> render(ctx, state);
             }
         } catch (ApiException e) {
             ctx.challenge(
@@ -194,31 +240,66 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
     public void close() {
     }
 
-    private void render(RequiredActionContext ctx) {
+    private static boolean resendAllowed(RequiredActionContext ctx) {
+        return ResendLimiter.tryAcquire(ctx.getRealm()
+                .getId(), ctx.getUser()
+                .getId(), ctx.getConnection()
+                .getRemoteAddr(), HaRealmSettings.resendLimit(ctx.getRealm()));
+    }
+
+    private void rejectResend(RequiredActionContext ctx) {
+        HaFlowState state = readState(ctx.getAuthenticationSession());
+        if (state != null) {
+            render(ctx, state, RESEND_LIMITED);
+            return;
+        }
+        ctx.challenge(
+                ctx.form()
+                        .setError(RESEND_LIMITED)
+                        .createErrorPage(Status.TOO_MANY_REQUESTS)
+        );
+    }
+
+    private void render(RequiredActionContext ctx, HaFlowState state) {
+        render(ctx, state, null);
+    }
+
+    private void render(RequiredActionContext ctx, HaFlowState state, String error) {
         AuthenticationSessionModel as = ctx.getAuthenticationSession();
 
-        String jti = as.getAuthNote(HaSessionNotes.PAIRING_JTI);
-        String jwt = as.getAuthNote(HaSessionNotes.PAIRING_JWT);
-        Long ttl = Long.valueOf(as.getAuthNote(HaSessionNotes.TTL));
-        Long exp = Long.valueOf(as.getAuthNote(HaSessionNotes.EXP));
+        String rootId = as.getParentSession()
+                .getId();
+        QrPayloadCache.put(state.id(), state.payload(), state.exp(), rootId, as.getTabId());
 
-        URI watchBase = ctx.getSession()
+        UriBuilder resourceBase = ctx.getSession()
                 .getContext()
                 .getUri()
                 .getBaseUriBuilder()
                 .path("realms")
                 .path(ctx.getRealm()
                         .getName())
-                .path(StatusWatchResourceProviderFactory.ID)
+                .path(StatusWatchResourceProviderFactory.ID);
+        URI watchBase = resourceBase.clone()
                 .path("watch")
                 .path("pairing")
                 .build();
+        URI qrUrl = resourceBase.clone()
+                .path("qr")
+                .path("pairing")
+                .queryParam("root", rootId)
+                .queryParam("tab", as.getTabId())
+                .queryParam("id", state.id())
+                .build();
 
-        Response page = ctx.form()
-                .setAttribute("qr", jwt)
-                .setAttribute("id", jti)
-                .setAttribute("ttl", ttl)
-                .setAttribute("exp", exp)
+        LoginFormsProvider form = ctx.form();
+        if (error != null) {
+            form.setError(error);
+        }
+        Response page = form
+                .setAttribute("qrUrl", qrUrl.toString())
+                .setAttribute("id", state.id())
+                .setAttribute("ttl", state.ttl())
+                .setAttribute("exp", state.exp())
                 .setAttribute("rootAuthSessionId", as.getParentSession()
                         .getId())
                 .setAttribute("tabId", as.getTabId())
@@ -228,10 +309,20 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
         ctx.challenge(page);
     }
 
+    private static HaFlowState readState(AuthenticationSessionModel s) {
+        return HaFlowState.decode(s.getAuthNote(HaSessionNotes.PAIRING_STATE));
+    }
+
+    private static String flightKey(AuthenticationSessionModel s) {
+        return StatusWatchRegistry.TYPE_PAIRING + ":" + s.getParentSession()
+                .getId() + ":" + s.getTabId();
+    }
+
     private static void clearNotes(AuthenticationSessionModel s) {
         closeActivePairingWatch(s);
-        s.removeAuthNote(HaSessionNotes.PAIRING_JTI);
-        s.removeAuthNote(HaSessionNotes.PAIRING_JWT);
+        QrPayloadCache.remove(HaFlowState.idOf(s.getAuthNote(HaSessionNotes.PAIRING_STATE)));
+        s.removeAuthNote(HaSessionNotes.PAIRING_STATE);
+        CREATES.reset(flightKey(s));
     }
 
     private boolean isPendingRegistration(UserModel user) {
@@ -240,12 +331,15 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
 
     private void clearPending(UserModel user) {
         user.removeAttribute(REG_PENDING);
+        user.removeAttribute(REG_PENDING_SINCE);
+        DeviceRegistrationCache.invalidate(user.getId());
     }
 
     private void deleteUser(RequiredActionContext ctx) {
         var realm = ctx.getRealm();
         var user = ctx.getUser();
         var id = user.getId();
+        DeviceRegistrationCache.invalidate(id);
         ctx.getSession()
                 .users()
                 .removeUser(realm, user);
@@ -258,6 +352,7 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
 
     private void markDeviceRegistered(UserModel user) {
         user.setSingleAttribute(DEV_REGISTERED, "true");
+        DeviceRegistrationCache.invalidate(user.getId());
     }
 
     private void ensurePendingRegistration(UserModel user) {
@@ -268,15 +363,36 @@ public class RegisterDeviceRequiredAction implements RequiredActionProvider {
 
         if (!isPendingRegistration(user)) {
             user.setSingleAttribute(REG_PENDING, "true");
+            markPendingSince(user, System.currentTimeMillis());
+        } else if (pendingSince(user) == null) {
+            markPendingSince(user, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * When the pending mark was first written, in epoch millis; {@code null} for marks written before this
+     * attribute existed or with an unreadable value.
+     */
+    static Long pendingSince(UserModel user) {
+        String raw = user.getFirstAttribute(REG_PENDING_SINCE);
+        if (raw == null) return null;
+        try {
+            return Long.parseLong(raw);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
+    static void markPendingSince(UserModel user, long epochMillis) {
+        user.setSingleAttribute(REG_PENDING_SINCE, Long.toString(epochMillis));
+    }
+
     private static void closeActivePairingWatch(AuthenticationSessionModel session) {
         if (session == null) {
             return;
         }
-        String pairingId = session.getAuthNote(HaSessionNotes.PAIRING_JTI);
-        if (pairingId == null || pairingId.isBlank()) {
+        String pairingId = HaFlowState.idOf(session.getAuthNote(HaSessionNotes.PAIRING_STATE));
+        if (pairingId == null) {
             return;
         }
         StatusWatchRegistry.closePairing(session, pairingId);
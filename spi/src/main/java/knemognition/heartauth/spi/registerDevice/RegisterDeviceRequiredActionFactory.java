@@ -1,10 +1,17 @@
 package knemognition.heartauth.spi.registerDevice;
 
+import knemognition.heartauth.spi.gateway.HaTracing;
+import knemognition.heartauth.spi.gateway.OrchHttp;
 import org.keycloak.Config;
 import org.keycloak.authentication.RequiredActionFactory;
 import org.keycloak.authentication.RequiredActionProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.services.scheduled.ClusterAwareScheduledTaskRunner;
+import org.keycloak.timer.TimerProvider;
 
 public class RegisterDeviceRequiredActionFactory implements RequiredActionFactory {
 
@@ -31,6 +38,23 @@ public class RegisterDeviceRequiredActionFactory implements RequiredActionFactor
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        HaTracing.init(factory);
+        OrchHttp.warmUpOnStartup(factory);
+        factory.register(event -> {
+            if (event instanceof UserModel.UserRemovedEvent removed) {
+                DeviceRegistrationCache.invalidate(removed.getUser()
+                        .getId());
+            } else if (event instanceof PostMigrationEvent) {
+                schedulePendingRegistrationReaper(factory);
+            }
+        });
+    }
+
+    private static void schedulePendingRegistrationReaper(KeycloakSessionFactory factory) {
+        long interval = PendingRegistrationReaper.intervalMillis();
+        KeycloakModelUtils.runJobInTransaction(factory, s -> s.getProvider(TimerProvider.class)
+                .schedule(new ClusterAwareScheduledTaskRunner(factory, new PendingRegistrationReaper(), interval),
+                        interval, PendingRegistrationReaper.TASK_NAME));
     }
 
     @Override
@@ -0,0 +1,68 @@
+package knemognition.heartauth.spi.status;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local cache of pairing QR payloads by {@code jti}, kept until the pairing expires, so the
+ * registration page can fetch (and the browser can revalidate) the payload without it being re-sent in
+ * every rendered form. Each entry is bound to the authentication session tab that created it.
+ */
+public final class QrPayloadCache {
+
+    private static final int MAX_ENTRIES = 20_000;
+
+    private static final ConcurrentHashMap<String, Entry> PAYLOADS = new ConcurrentHashMap<>();
+
+    private QrPayloadCache() {
+    }
+
+    public record Entry(String payload, long expEpochSeconds, String rootId, String tabId) {
+        boolean isExpired(long nowSeconds) {
+            return nowSeconds >= expEpochSeconds;
+        }
+    }
+
+    public static void put(String jti, String payload, long expEpochSeconds, String rootId, String tabId) {
+        if (jti == null || payload == null) return;
+        if (PAYLOADS.size() >= MAX_ENTRIES) {
+            purgeExpired();
+            if (PAYLOADS.size() >= MAX_ENTRIES) return;
+        }
+        PAYLOADS.putIfAbsent(jti, new Entry(payload, expEpochSeconds, rootId, tabId));
+    }
+
+    /**
+     * @return the payload entry when present, unexpired and owned by the given tab; otherwise {@code null}
+     */
+    public static Entry get(String jti, String rootId, String tabId) {
+        if (jti == null) return null;
+        Entry entry = PAYLOADS.get(jti);
+        if (entry == null) return null;
+        if (entry.isExpired(nowSeconds())) {
+            PAYLOADS.remove(jti, entry);
+            return null;
+        }
+        if (!entry.rootId()
+                .equals(rootId) || !entry.tabId()
+                .equals(tabId)) {
+            return null;
+        }
+        return entry;
+    }
+
+    public static void remove(String jti) {
+        if (jti != null) {
+            PAYLOADS.remove(jti);
+        }
+    }
+
+    static long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static void purgeExpired() {
+        long now = nowSeconds();
+        PAYLOADS.values()
+                .removeIf(e -> e.isExpired(now));
+    }
+}
@@ -0,0 +1,82 @@
+package knemognition.heartauth.spi.status;
+
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.spi.config.HaConstants;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded, time-limited cache of challenge/pairing ids already known to be terminal, so watches reopened for
+ * them get their final event without an orchestrator call.
+ * <p>
+ * NOT_FOUND is only kept for {@link HaConstants#NOT_FOUND_CACHE_TTL}: right after a create, or while an
+ * orchestrator replica lags, it can be transient, and caching it for long would pin a live flow as dead.
+ */
+public final class StatusOutcomeCache {
+
+    private static final int MAX_ENTRIES = 50_000;
+
+    private static final ConcurrentHashMap<String, Outcome> OUTCOMES = new ConcurrentHashMap<>();
+
+    private StatusOutcomeCache() {
+    }
+
+    public static void record(String type, String entityId, FlowStatusDto status) {
+        if (entityId == null || entityId.isBlank() || !isTerminal(status)) return;
+        if (OUTCOMES.size() >= MAX_ENTRIES) {
+            evict();
+        }
+        long ttl = status == FlowStatusDto.NOT_FOUND
+                ? HaConstants.NOT_FOUND_CACHE_TTL.toNanos()
+                : HaConstants.OUTCOME_CACHE_TTL.toNanos();
+        long expiresAt = System.nanoTime() + ttl;
+        OUTCOMES.put(key(type, entityId), new Outcome(status, expiresAt));
+    }
+
+    /**
+     * @return the cached terminal status, or {@code null} when unknown or expired
+     */
+    public static FlowStatusDto lookup(String type, String entityId) {
+        if (entityId == null || entityId.isBlank()) return null;
+        String key = key(type, entityId);
+        Outcome outcome = OUTCOMES.get(key);
+        if (outcome == null) return null;
+        if (outcome.isExpired(System.nanoTime())) {
+            OUTCOMES.remove(key, outcome);
+            return null;
+        }
+        return outcome.status();
+    }
+
+    public static boolean isTerminal(FlowStatusDto status) {
+        if (status == null) return false;
+        return switch (status) {
+            case APPROVED, DENIED, EXPIRED, NOT_FOUND -> true;
+            case PENDING, CREATED -> false;
+        };
+    }
+
+    private static void evict() {
+        long now = System.nanoTime();
+        OUTCOMES.values()
+                .removeIf(o -> o.isExpired(now));
+        // Still full of live entries: drop an arbitrary slice rather than grow without bound.
+        Iterator<Outcome> it = OUTCOMES.values()
+                .iterator();
+        for (int i = OUTCOMES.size() - MAX_ENTRIES * 9 / 10; i > 0 && it.hasNext(); i--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String key(String type, String entityId) {
+        return type + ":" + entityId;
+    }
+
+    private record Outcome(FlowStatusDto status, long expiresAtNanos) {
+        boolean isExpired(long now) {
+            return now - expiresAtNanos > 0;
+        }
+    }
+}
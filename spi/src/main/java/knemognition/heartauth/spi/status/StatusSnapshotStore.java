@@ -0,0 +1,69 @@
+package knemognition.heartauth.spi.status;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cluster-wide snapshot of terminal challenge/pairing statuses, kept in Keycloak's single-use object store
+ * until the flow's own expiry. The node that served the status watch publishes the outcome, so the form
+ * post completing the flow can be handled by any node without asking the orchestrator again.
+ * <p>
+ * NOT_FOUND is never published: it can be a transient answer, and a cluster-wide copy would fail the flow
+ * everywhere until its expiry.
+ */
+public final class StatusSnapshotStore {
+
+    private static final String KEY_PREFIX = "hauth.status:";
+    private static final String STATUS = "status";
+    private static final String REASON = "reason";
+
+    private static final Counter HITS = Metrics.counter("hauth.status.snapshot.lookups", "result", "hit");
+    private static final Counter MISSES = Metrics.counter("hauth.status.snapshot.lookups", "result", "miss");
+
+    private StatusSnapshotStore() {
+    }
+
+    public static void publish(KeycloakSession session, String type, String entityId, StatusResponseDto status,
+                               long expEpochSeconds) {
+        if (status == null || !StatusOutcomeCache.isTerminal(status.getStatus())
+                || status.getStatus() == FlowStatusDto.NOT_FOUND) return;
+        long lifespan = expEpochSeconds - System.currentTimeMillis() / 1000;
+        if (lifespan <= 0) return;
+        Map<String, String> notes = new HashMap<>(2);
+        notes.put(STATUS, status.getStatus()
+                .getValue());
+        if (status.getReason() != null) {
+            notes.put(REASON, status.getReason());
+        }
+        session.singleUseObjects()
+                .put(key(type, entityId), lifespan, notes);
+    }
+
+    /**
+     * @return the published terminal status, or {@code null} when no node has seen the flow finish yet
+     */
+    public static StatusResponseDto lookup(KeycloakSession session, String type, String entityId) {
+        Map<String, String> notes = session.singleUseObjects()
+                .get(key(type, entityId));
+        String raw = notes != null ? notes.get(STATUS) : null;
+        if (raw == null) {
+            MISSES.increment();
+            return null;
+        }
+        HITS.increment();
+        return StatusResponseDto.builder()
+                .status(FlowStatusDto.fromValue(raw))
+                .reason(notes.get(REASON))
+                .build();
+    }
+
+    private static String key(String type, String entityId) {
+        return KEY_PREFIX + type + ":" + entityId;
+    }
+}
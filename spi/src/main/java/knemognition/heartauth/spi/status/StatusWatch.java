@@ -0,0 +1,314 @@
+package knemognition.heartauth.spi.status;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusEntityTypeDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.HaTracing;
+import knemognition.heartauth.spi.gateway.OrchDeferredException;
+import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.OrchPriority;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One open status watch: polls the orchestrator one step at a time until the flow ends, the client goes
+ * away or the flow's {@code exp} passes.
+ * <p>
+ * Expiry is part of the step schedule: no step is due later than the flow's {@code exp}, and the first step
+ * after it sends a final EXPIRED event without an orchestrator call. Every step, expiry included, runs on the
+ * thread that owns the watch, so watch state is never touched concurrently. Step due-times are
+ * {@link WatchTimer} timeouts in both modes: in virtual-thread mode the timeout dispatches the step and a
+ * waiting watch holds no thread at all; otherwise the watch keeps the request thread, parked until its timeout
+ * wakes it. A timeout still pending when the watch finishes is cancelled. The first poll comes after a random
+ * fraction of the poll period, so watches opened together (a reconnect wave, a node restart) do not poll in
+ * lockstep.
+ * <p>
+ * The whole watch is one span, child of the request that opened it; every step runs with it current, so the
+ * orchestrator polls it makes are its children.
+ */
+final class StatusWatch {
+
+    private static final Logger LOG = Logger.getLogger(StatusWatch.class);
+
+    static final int POLL_PERIOD_MS = 1500;
+    private static final int MIN_POLL_PERIOD_MS = 500;
+    private static final int MAX_POLL_PERIOD_MS = 30_000;
+    private static final int BACKOFF_STEP_MS = 200;
+    private static final int BACKOFF_MAX_STEPS = 5;
+    private static final int REVALIDATE_EVERY_TICKS = 10;
+
+    /**
+     * Orchestrator status call for one kind of watch; a shared constant per kind rather than a per-watch lambda.
+     */
+    @FunctionalInterface
+    interface Poll {
+        StatusResponseDto poll(OrchClient client, UUID id) throws ApiException;
+    }
+
+    static final Poll ECG_POLL = (client, id) -> client.getChallengeStatus(id, OrchPriority.BACKGROUND);
+    static final Poll PAIRING_POLL = (client, id) -> client.getPairingStatus(id, OrchPriority.BACKGROUND);
+
+    // Kept deliberately small: one instance lives as long as its SSE stream (WatchFootprintTest holds it to a
+    // budget). The key is the registry's own instance, and nothing from the request (session, realm,
+    // resource) is referenced.
+    private final String watchType;
+    private final String key;
+    private final String entityId;
+    private final UUID entityUuid;
+    private final SseEventSink sink;
+    private final Sse sse;
+    private final OrchClient clientApi;
+    private final Poll poll;
+    private final boolean stopOnTerminal;
+    private final KeycloakSessionFactory factory;
+    private final long expEpochSeconds;
+    private final BooleanSupplier stillActive;
+
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private Span span;
+    private Context traceContext;
+    private Runnable dispatchStep;
+    private volatile WatchTimer.Timeout pendingStep;
+    private int err;
+    private int ticks;
+
+    /**
+     * @param key the key {@code sink} is registered under, see {@link StatusWatchRegistry#buildKey}
+     */
+    StatusWatch(String watchType,
+                String key,
+                String entityId,
+                SseEventSink sink,
+                Sse sse,
+                OrchClient clientApi,
+                Poll poll,
+                boolean stopOnTerminal,
+                KeycloakSessionFactory factory,
+                long expEpochSeconds,
+                BooleanSupplier stillActive) {
+        this.watchType = watchType;
+        this.key = key;
+        this.entityId = entityId;
+        this.entityUuid = UUID.fromString(entityId);
+        this.sink = sink;
+        this.sse = sse;
+        this.clientApi = clientApi;
+        this.poll = poll;
+        this.stopOnTerminal = stopOnTerminal;
+        this.factory = factory;
+        this.expEpochSeconds = expEpochSeconds;
+        this.stillActive = stillActive;
+    }
+
+    /**
+     * Runs the watch until done: on the calling thread, or scheduled step by step on virtual threads.
+     */
+    void start() {
+        span = HaTracing.tracer()
+                .spanBuilder("status-watch " + watchType)
+                .setAttribute("hauth.watch.type", watchType)
+                .setAttribute("hauth.entity.id", entityId)
+                .startSpan();
+        traceContext = Context.current()
+                .with(span);
+        clientApi.watch(entityType(), entityUuid);
+
+        if (HaExecutors.virtualThreads()) {
+            // The request thread returns immediately; the sink stays open and is driven from virtual threads.
+            // The step task is built once and reused for every reschedule.
+            Runnable step = traceContext.wrap(HaExecutors.withMdc(this::stepAndReschedule));
+            dispatchStep = () -> HaExecutors.watchExecutor()
+                    .execute(step);
+            pendingStep = WatchTimer.schedule(dueIn(spreadMs()), dispatchStep);
+            return;
+        }
+        Thread owner = Thread.currentThread();
+        dispatchStep = () -> LockSupport.unpark(owner);
+        try (Scope ignored = traceContext.makeCurrent()) {
+            long delay = dueIn(spreadMs());
+            while (delay >= 0) {
+                awaitDue(WatchTimer.schedule(delay, dispatchStep));
+                delay = step();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread()
+                    .interrupt();
+            finish();
+        }
+    }
+
+    private void stepAndReschedule() {
+        long delay = step();
+        if (delay >= 0) {
+            pendingStep = WatchTimer.schedule(delay, dispatchStep);
+        }
+    }
+
+    /**
+     * Parks the request thread until {@code due} has fired.
+     */
+    private void awaitDue(WatchTimer.Timeout due) throws InterruptedException {
+        pendingStep = due;
+        while (!due.fired()) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    WatchTimer.Timeout pendingStep() {
+        return pendingStep;
+    }
+
+    /**
+     * One poll.
+     *
+     * @return delay before the next step, or {@code -1} once the watch has finished
+     */
+    private long step() {
+        if (finished.get()) return -1;
+        if (sink.isClosed() || StatusWatchRegistry.isCloseRequested(key)) {
+            finish();
+            return -1;
+        }
+        if (msUntilExpiry() <= 0) {
+            expire();
+            return -1;
+        }
+        try {
+            StatusResponseDto st = poll.poll(clientApi, entityUuid);
+            err = 0;
+            int pollAfterMs = pollAfterMs(st);
+
+            boolean terminal = StatusOutcomeCache.isTerminal(st.getStatus());
+            if (terminal) {
+                span.addEvent("status " + st.getStatus()
+                        .getValue());
+            }
+            // Published before the browser hears about it: its form post may land on another node at once.
+            if (terminal && StatusOutcomeCache.lookup(watchType, entityId) == null) {
+                publish(st);
+                StatusOutcomeCache.record(watchType, entityId, st.getStatus());
+            }
+
+            if (!StatusWatchResource.safeSendStatus(sink, sse, pollAfterMs, st.getStatus())) {
+                finish();
+                return -1;
+            }
+
+            if (++ticks % REVALIDATE_EVERY_TICKS == 0 && !stillActive.getAsBoolean()) {
+                StatusWatchResource.safeSendStatus(sink, sse, POLL_PERIOD_MS, FlowStatusDto.NOT_FOUND);
+                finish();
+                return -1;
+            }
+
+            if (stopOnTerminal && terminal) {
+                finish();
+                return -1;
+            }
+            return dueIn(pollAfterMs);
+        } catch (OrchDeferredException deferred) {
+            // Shed locally to keep capacity for logins: not an upstream failure, so no backoff escalation.
+            return dueIn(spreadMs() + POLL_PERIOD_MS / 2);
+        } catch (Exception transientErr) {
+            err = Math.min(err + 1, BACKOFF_MAX_STEPS);
+            return dueIn(backoffMs(err));
+        }
+    }
+
+    /**
+     * The flow's own deadline passed: the orchestrator would only answer EXPIRED, so it is not asked.
+     */
+    private void expire() {
+        span.addEvent("expired");
+        StatusWatchResource.safeSendStatus(sink, sse, POLL_PERIOD_MS, FlowStatusDto.EXPIRED);
+        finish();
+    }
+
+    private void finish() {
+        if (!finished.compareAndSet(false, true)) return;
+        WatchTimer.Timeout due = pendingStep;
+        if (due != null) {
+            due.cancel();
+        }
+        clientApi.unwatch(entityType(), entityUuid);
+        // A registry close that got there first closes the sink itself.
+        if (StatusWatchRegistry.unregister(key, sink)) {
+            StatusWatchResource.close(sink);
+        }
+        span.setAttribute("hauth.watch.polls", ticks);
+        span.end();
+    }
+
+    /**
+     * Shares the outcome cluster-wide so the form post completing the flow can be served by any node. Best
+     * effort: if the store is unavailable, that post asks the orchestrator instead.
+     */
+    private void publish(StatusResponseDto st) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(factory,
+                    s -> StatusSnapshotStore.publish(s, watchType, entityId, st, expEpochSeconds));
+        } catch (Exception e) {
+            LOG.warnf("Could not publish %s status of %s %s: %s", st.getStatus(), watchType, entityId,
+                    e.getMessage());
+        }
+    }
+
+    private StatusEntityTypeDto entityType() {
+        return StatusWatchRegistry.TYPE_PAIRING.equals(watchType)
+                ? StatusEntityTypeDto.PAIRING
+                : StatusEntityTypeDto.CHALLENGE;
+    }
+
+    private long msUntilExpiry() {
+        return expEpochSeconds * 1000 - System.currentTimeMillis();
+    }
+
+    /**
+     * The requested delay, brought forward to the flow's expiry when that comes first.
+     */
+    private long dueIn(long delayMs) {
+        return Math.max(0, Math.min(delayMs, msUntilExpiry()));
+    }
+
+    /**
+     * Random fraction of the poll period, spreading polls of watches that would otherwise fire together.
+     */
+    private static long spreadMs() {
+        return ThreadLocalRandom.current()
+                .nextLong(POLL_PERIOD_MS);
+    }
+
+    /**
+     * Exponential with jitter, so watches failing together on an upstream outage do not retry in lockstep.
+     */
+    private static long backoffMs(int failures) {
+        long cap = (long) BACKOFF_STEP_MS << failures;
+        return cap / 2 + ThreadLocalRandom.current()
+                .nextLong(cap / 2 + 1);
+    }
+
+    /**
+     * Next poll delay: the orchestrator's {@code pollAfterMs} hint, clamped to sane bounds, or the default period.
+     */
+    private static int pollAfterMs(StatusResponseDto st) {
+        Integer hint = st.getPollAfterMs();
+        if (hint == null) return POLL_PERIOD_MS;
+        return Math.max(MIN_POLL_PERIOD_MS, Math.min(hint, MAX_POLL_PERIOD_MS));
+    }
+}
@@ -3,64 +3,123 @@ package knemognition.heartauth.spi.status;
 import jakarta.ws.rs.sse.SseEventSink;
 import org.keycloak.sessions.AuthenticationSessionModel;
 
+import java.util.Arrays;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tracks active SSE sinks for authentication flows so they can be closed
  * explicitly when the user abandons a screen or a flow is restarted.
+ * <p>
+ * A registered sink is closed exactly once, by whoever takes it out of the registry: {@link #close} or
+ * {@link #disconnect} for every sink under the key, or its own watch on finishing ({@link #unregister}
+ * returns {@code true}).
+ * <p>
+ * {@link #close} retires the flow behind the key (rotation to a new id, completion, cleanup): it also leaves a
+ * close marker, and {@link #register} refuses the key while the marker lives, so a close that overtakes a
+ * still-connecting stream is not lost. Anything after which the same id is watched again (the browser's close
+ * beacon, a re-render of the same challenge or pairing) only {@link #disconnect}s, leaving no marker. Markers expire on their own: most closes target a
+ * watch that already finished or lives on another node, and nothing else would ever remove them.
  */
 public final class StatusWatchRegistry {
 
     public static final String TYPE_ECG = "ecg";
     public static final String TYPE_PAIRING = "pairing";
 
-    private static final ConcurrentHashMap<String, WatchEntry> SINKS = new ConcurrentHashMap<>();
-    private static final Set<String> CLOSE_REQUESTS = ConcurrentHashMap.newKeySet();
+    // Almost every key has exactly one sink, so entries are small copy-on-write arrays (replaced atomically
+    // inside compute) rather than a concurrent set per watch.
+    private static final ConcurrentHashMap<String, SseEventSink[]> SINKS = new ConcurrentHashMap<>();
+    // key -> System.nanoTime() deadline after which the marker is ignored and may be purged
+    private static final ConcurrentHashMap<String, Long> CLOSE_REQUESTS = new ConcurrentHashMap<>();
+    static final long CLOSE_MARKER_TTL_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final int CLOSE_MARKER_PURGE_THRESHOLD = 10_000;
 
     private StatusWatchRegistry() {
     }
 
-    public static void register(String type,
-                                String rootId,
-                                String tabId,
-                                String entityId,
-                                SseEventSink sink) {
-        String key = buildKey(type, rootId, tabId, entityId);
-        if (key.isEmpty() || sink == null) return;
-        CLOSE_REQUESTS.remove(key);
+    /**
+     * @return {@code false} when the flow was already closed; the sink is not registered and the caller
+     * still owns it
+     */
+    public static boolean register(String type,
+                                   String rootId,
+                                   String tabId,
+                                   String entityId,
+                                   SseEventSink sink) {
+        return register(buildKey(type, rootId, tabId, entityId), sink);
+    }
+
+    /**
+     * Callers that keep the key (a watch) pass it in, so one string serves both.
+     */
+    static boolean register(String key, SseEventSink sink) {
+        if (key.isEmpty() || sink == null) return false;
+        boolean[] registered = new boolean[1];
+        // The marker is checked inside compute: close() sets it before taking the key's sinks, so either
+        // this sees it or close() sees the sink.
         SINKS.compute(key, (k, existing) -> {
-            WatchEntry entry = existing;
-            if (entry == null) {
-                entry = new WatchEntry();
+            if (isCloseRequested(k)) return existing;
+            registered[0] = true;
+            if (existing == null) {
+                return new SseEventSink[]{sink};
             }
-            entry.sinks.add(sink);
-            return entry;
+            SseEventSink[] grown = Arrays.copyOf(existing, existing.length + 1);
+            grown[existing.length] = sink;
+            return grown;
         });
+        return registered[0];
     }
 
-    public static void unregister(String type,
-                                  String rootId,
-                                  String tabId,
-                                  String entityId,
-                                  SseEventSink sink) {
-        String key = buildKey(type, rootId, tabId, entityId);
-        if (key.isEmpty() || sink == null) return;
-        SINKS.computeIfPresent(key, (k, entry) -> {
-            entry.sinks.remove(sink);
-            return entry.sinks.isEmpty() ? null : entry;
+    public static boolean unregister(String type,
+                                     String rootId,
+                                     String tabId,
+                                     String entityId,
+                                     SseEventSink sink) {
+        return unregister(buildKey(type, rootId, tabId, entityId), sink);
+    }
+
+    /**
+     * @return {@code true} when this call took the sink out, so the caller must close it; {@code false} when
+     * a close took it first (and closes it) or it was never registered
+     */
+    static boolean unregister(String key, SseEventSink sink) {
+        if (key.isEmpty() || sink == null) return false;
+        boolean[] removed = new boolean[1];
+        SINKS.computeIfPresent(key, (k, sinks) -> {
+            int i = indexOf(sinks, sink);
+            if (i < 0) return sinks;
+            removed[0] = true;
+            if (sinks.length == 1) return null;
+            SseEventSink[] shrunk = new SseEventSink[sinks.length - 1];
+            System.arraycopy(sinks, 0, shrunk, 0, i);
+            System.arraycopy(sinks, i + 1, shrunk, i, sinks.length - i - 1);
+            return shrunk;
         });
+        return removed[0];
     }
 
+    /**
+     * Retires the flow behind the key: closes its sinks and keeps it from being watched again for a while.
+     */
     public static void close(String type, String rootId, String tabId, String entityId) {
         String key = buildKey(type, rootId, tabId, entityId);
         if (key.isEmpty()) return;
-        CLOSE_REQUESTS.add(key);
-        WatchEntry entry = SINKS.remove(key);
-        if (entry == null || entry.sinks.isEmpty()) {
-            return;
+        long now = System.nanoTime();
+        if (CLOSE_REQUESTS.size() >= CLOSE_MARKER_PURGE_THRESHOLD) {
+            purgeExpiredMarkers(now);
         }
-        entry.sinks.forEach(StatusWatchRegistry::safeClose);
+        CLOSE_REQUESTS.put(key, now + CLOSE_MARKER_TTL_NANOS);
+        closeSinks(key);
+    }
+
+    /**
+     * Closes the key's sinks without retiring the flow: the client left, but may come back.
+     */
+    public static void disconnect(String type, String rootId, String tabId, String entityId) {
+        String key = buildKey(type, rootId, tabId, entityId);
+        if (key.isEmpty()) return;
+        closeSinks(key);
     }
 
     public static void closePairing(AuthenticationSessionModel session, String pairingId) {
@@ -73,16 +132,31 @@ public final class StatusWatchRegistry {
         close(TYPE_ECG, getRootId(session), session.getTabId(), challengeId);
     }
 
+    /**
+     * The page for a still-current pairing is rendered again (refresh, re-entered action): its old stream is
+     * dropped, but the browser's new one must be able to watch the same id.
+     */
+    public static void disconnectPairing(AuthenticationSessionModel session, String pairingId) {
+        if (session == null) return;
+        disconnect(TYPE_PAIRING, getRootId(session), session.getTabId(), pairingId);
+    }
+
+    /**
+     * Like {@link #disconnectPairing}, for a still-current ECG challenge.
+     */
+    public static void disconnectEcg(AuthenticationSessionModel session, String challengeId) {
+        if (session == null) return;
+        disconnect(TYPE_ECG, getRootId(session), session.getTabId(), challengeId);
+    }
+
     public static boolean isCloseRequested(String type, String rootId, String tabId, String entityId) {
-        String key = buildKey(type, rootId, tabId, entityId);
-        return !key.isEmpty() && CLOSE_REQUESTS.contains(key);
+        return isCloseRequested(buildKey(type, rootId, tabId, entityId));
     }
 
-    public static void markFinished(String type, String rootId, String tabId, String entityId) {
-        String key = buildKey(type, rootId, tabId, entityId);
-        if (!key.isEmpty()) {
-            CLOSE_REQUESTS.remove(key);
-        }
+    static boolean isCloseRequested(String key) {
+        if (key.isEmpty()) return false;
+        Long deadline = CLOSE_REQUESTS.get(key);
+        return deadline != null && deadline - System.nanoTime() > 0;
     }
 
     public static String buildKey(String type, String rootId, String tabId, String entityId) {
@@ -96,8 +170,38 @@ public final class StatusWatchRegistry {
         return String.join(":", safeType, safeRoot, safeTab, safeEntity);
     }
 
-    private static final class WatchEntry {
-        private final Set<SseEventSink> sinks = ConcurrentHashMap.newKeySet();
+    private static void closeSinks(String key) {
+        SseEventSink[] sinks = SINKS.remove(key);
+        if (sinks == null) return;
+        for (SseEventSink sink : sinks) {
+            safeClose(sink);
+        }
+    }
+
+    /**
+     * Keys with at least one registered sink; a live view, for tests.
+     */
+    static Set<String> openKeys() {
+        return SINKS.keySet();
+    }
+
+    /**
+     * Keys with a close marker, expired or not; a live view, for tests.
+     */
+    static Set<String> closeMarkers() {
+        return CLOSE_REQUESTS.keySet();
+    }
+
+    static void purgeExpiredMarkers(long now) {
+        CLOSE_REQUESTS.values()
+                .removeIf(deadline -> deadline - now <= 0);
+    }
+
+    private static int indexOf(SseEventSink[] sinks, SseEventSink sink) {
+        for (int i = 0; i < sinks.length; i++) {
+            if (sinks[i] == sink) return i;
+        }
+        return -1;
     }
 
     private static void safeClose(SseEventSink sink) {
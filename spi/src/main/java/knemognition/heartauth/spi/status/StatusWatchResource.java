@@ -6,34 +6,39 @@ import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.CacheControl;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.sse.OutboundSseEvent;
 import jakarta.ws.rs.sse.Sse;
 import jakarta.ws.rs.sse.SseEventSink;
-import knemognition.heartauth.orchestrator.ApiException;
 import knemognition.heartauth.orchestrator.model.FlowStatusDto;
 import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.spi.config.HaConstants;
+import knemognition.heartauth.spi.config.HaFlowState;
 import knemognition.heartauth.spi.config.HaSessionNotes;
+import knemognition.heartauth.spi.gateway.HaExecutors;
 import knemognition.heartauth.spi.gateway.OrchClient;
 import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.models.RealmModel;
 import org.keycloak.sessions.AuthenticationSessionModel;
 import org.keycloak.sessions.RootAuthenticationSessionModel;
 
 import java.util.Objects;
 import java.util.UUID;
-import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 
 @Path("")
 public class StatusWatchResource {
 
-    private static final int POLL_PERIOD_MS = 1500;
-    private static final int BACKOFF_STEP_MS = 200;
-    private static final int BACKOFF_MAX_STEPS = 5;
+    private static final int POLL_PERIOD_MS = StatusWatch.POLL_PERIOD_MS;
     private final KeycloakSession session;
 
     public StatusWatchResource(KeycloakSession session) {
@@ -51,14 +56,8 @@ public class StatusWatchResource {
                          @Context Sse sse) {
 
         watchStatus(StatusWatchRegistry.TYPE_ECG, rootId, tabId, challengeIdStr, sink, sse,
-                (clientApi, kcSessionId) -> {
-                    try {
-                        return clientApi.getChallengeStatus(UUID.fromString(challengeIdStr));
-                    } catch (ApiException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                as -> as.getAuthNote(HaSessionNotes.ECG_CHALLENGE_ID),
+                StatusWatch.ECG_POLL,
+                as -> HaFlowState.idOf(as.getAuthNote(HaSessionNotes.ECG_STATE)),
                 true
         );
     }
@@ -74,14 +73,8 @@ public class StatusWatchResource {
                              @Context Sse sse) {
 
         watchStatus(StatusWatchRegistry.TYPE_PAIRING, rootId, tabId, pairingIdStr, sink, sse,
-                (clientApi, kcSessionId) -> {
-                    try {
-                        return clientApi.getPairingStatus(UUID.fromString(pairingIdStr));
-                    } catch (ApiException e) {
-                        throw new RuntimeException(e);
-                    }
-                },
-                as -> as.getAuthNote(HaSessionNotes.PAIRING_JTI),
+                StatusWatch.PAIRING_POLL,
+                as -> HaFlowState.idOf(as.getAuthNote(HaSessionNotes.PAIRING_STATE)),
                 true
         );
     }
@@ -114,13 +107,71 @@ public class StatusWatchResource {
                 .build();
     }
 
+    /**
+     * Serves the pairing QR payload once per pairing: the {@code jti} is the ETag, so re-renders of the
+     * registration page revalidate with {@code If-None-Match} and get a 304 instead of the token again.
+     */
+    @GET
+    @Path("qr/pairing")
+    @Produces(MediaType.TEXT_PLAIN)
+    @ActivateRequestContext
+    public Response qrPairing(@QueryParam("root") String rootId,
+                              @QueryParam("tab") String tabId,
+                              @QueryParam("id") String pairingIdStr,
+                              @Context Request request) {
+        if (rootId == null || tabId == null || pairingIdStr == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .build();
+        }
+        QrPayloadCache.Entry entry = QrPayloadCache.get(pairingIdStr, rootId, tabId);
+        if (entry == null) {
+            entry = loadQrPayload(rootId, tabId, pairingIdStr);
+        }
+        if (entry == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .build();
+        }
+
+        EntityTag etag = new EntityTag(pairingIdStr);
+        CacheControl cc = new CacheControl();
+        cc.setPrivate(true);
+        cc.setMaxAge((int) Math.max(0, entry.expEpochSeconds() - QrPayloadCache.nowSeconds()));
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.cacheControl(cc)
+                    .build();
+        }
+        return Response.ok(entry.payload(), MediaType.TEXT_PLAIN_TYPE)
+                .tag(etag)
+                .cacheControl(cc)
+                .build();
+    }
+
+    private QrPayloadCache.Entry loadQrPayload(String rootId, String tabId, String pairingIdStr) {
+        RealmModel realm = session.getContext()
+                .getRealm();
+        RootAuthenticationSessionModel root = session.authenticationSessions()
+                .getRootAuthenticationSession(realm, rootId);
+        if (root == null) return null;
+        AuthenticationSessionModel as = resolveAuthSession(root, tabId);
+        if (as == null) return null;
+        HaFlowState state = HaFlowState.decode(as.getAuthNote(HaSessionNotes.PAIRING_STATE));
+        if (state == null || state.payload() == null || !state.id()
+                .equals(pairingIdStr)) {
+            return null;
+        }
+        QrPayloadCache.put(state.id(), state.payload(), state.exp(), rootId, tabId);
+        return new QrPayloadCache.Entry(state.payload(), state.exp(), rootId, tabId);
+    }
+
     private void watchStatus(String watchType,
                              String rootId,
                              String tabId,
                              String entityIdStr,
                              SseEventSink sink,
                              Sse sse,
-                             BiFunction<OrchClient, String, StatusResponseDto> resolver,
+                             StatusWatch.Poll poll,
                              Function<AuthenticationSessionModel, String> activeIdResolver,
                              boolean stopOnTerminal) {
 
@@ -140,11 +191,20 @@ public class StatusWatchResource {
             return;
         }
 
-        if (!isMatchingEntity(as, entityIdStr, activeIdResolver)) {
+        // Validated once here; local rotations reach the loop as registry close requests, and remote
+        // ones (flow advanced on another node) are caught by the periodic re-validation below.
+        if (!isUuid(entityIdStr) || !isMatchingEntity(as, entityIdStr, activeIdResolver)) {
             sendAndCloseError(sink, sse, POLL_PERIOD_MS);
             return;
         }
 
+        FlowStatusDto known = StatusOutcomeCache.lookup(watchType, entityIdStr);
+        if (known != null) {
+            safeSendStatus(sink, sse, POLL_PERIOD_MS, known);
+            close(sink);
+            return;
+        }
+
         final OrchClient clientApi;
         try {
             clientApi = OrchClient.clientFromRealm(realm);
@@ -154,71 +214,62 @@ public class StatusWatchResource {
         }
 
         final String kcSessionId = root.getId();
-        StatusWatchRegistry.register(watchType, kcSessionId, tabId, entityIdStr, sink);
-
-        if (StatusWatchRegistry.isCloseRequested(watchType, kcSessionId, tabId, entityIdStr)) {
-            StatusWatchRegistry.unregister(watchType, kcSessionId, tabId, entityIdStr, sink);
-            StatusWatchRegistry.markFinished(watchType, kcSessionId, tabId, entityIdStr);
+        final String key = StatusWatchRegistry.buildKey(watchType, kcSessionId, tabId, entityIdStr);
+        if (!StatusWatchRegistry.register(key, sink)) {
+            // The flow was closed (rotated, completed) before its stream got here.
             close(sink);
             return;
         }
 
         if (!safeSendStatus(sink, sse, POLL_PERIOD_MS, FlowStatusDto.PENDING)) {
-            close(sink);
-            StatusWatchRegistry.unregister(watchType, kcSessionId, tabId, entityIdStr, sink);
-            StatusWatchRegistry.markFinished(watchType, kcSessionId, tabId, entityIdStr);
+            if (StatusWatchRegistry.unregister(key, sink)) {
+                close(sink);
+            }
             return;
         }
 
-        int err = 0;
+        final long flowExp = flowExp(as, watchType);
+        final KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+        final BooleanSupplier stillActive;
+        if (HaExecutors.virtualThreads()) {
+            // Outlives this request: must not capture the request's session or realm.
+            final String realmId = realm.getId();
+            stillActive = () -> KeycloakModelUtils.runJobInTransactionWithResult(factory,
+                    s -> isStillActive(s, s.realms()
+                            .getRealm(realmId), kcSessionId, tabId, entityIdStr, activeIdResolver));
+        } else {
+            final KeycloakSession requestSession = session;
+            stillActive = () -> isStillActive(requestSession, realm, kcSessionId, tabId, entityIdStr,
+                    activeIdResolver);
+        }
+        new StatusWatch(watchType, key, entityIdStr, sink, sse, clientApi, poll, stopOnTerminal, factory, flowExp,
+                stillActive)
+                .start();
+    }
+
+    /**
+     * Flow expiry (epoch seconds) from the session note: when the watch is expired and how long a published
+     * outcome is kept.
+     */
+    private static long flowExp(AuthenticationSessionModel as, String watchType) {
+        HaFlowState state = HaFlowState.decode(as.getAuthNote(StatusWatchRegistry.TYPE_PAIRING.equals(watchType)
+                ? HaSessionNotes.PAIRING_STATE
+                : HaSessionNotes.ECG_STATE));
+        return state != null
+                ? state.exp()
+                : System.currentTimeMillis() / 1000 + HaConstants.OUTCOME_CACHE_TTL.toSeconds();
+    }
+
+    private static boolean isUuid(String value) {
         try {
-            if (StatusWatchRegistry.isCloseRequested(watchType, kcSessionId, tabId, entityIdStr)) {
-                return;
-            }
-            while (!sink.isClosed()) {
-                if (StatusWatchRegistry.isCloseRequested(watchType, kcSessionId, tabId, entityIdStr)) {
-                    return;
-                }
-                try {
-                    StatusResponseDto st = resolver.apply(clientApi, kcSessionId);
-                    err = 0;
-
-                    if (!safeSendStatus(sink, sse, POLL_PERIOD_MS, st.getStatus())) {
-                        close(sink);
-                        return;
-                    }
-
-                    if (!isMatchingEntity(as, entityIdStr, activeIdResolver)) {
-                        sendAndCloseError(sink, sse, POLL_PERIOD_MS);
-                        return;
-                    }
-
-                    boolean terminal = switch (st.getStatus()) {
-                        case APPROVED, DENIED, EXPIRED, NOT_FOUND -> true;
-                        case PENDING, CREATED -> false;
-                    };
-                    if (stopOnTerminal && terminal) {
-                        close(sink);
-                        return;
-                    }
-
-                    Thread.sleep(POLL_PERIOD_MS);
-                } catch (Exception transientErr) {
-                    err = Math.min(err + 1, BACKOFF_MAX_STEPS);
-                    Thread.sleep(err * (long) BACKOFF_STEP_MS);
-                }
-            }
-        } catch (InterruptedException ie) {
-            Thread.currentThread()
-                    .interrupt();
-        } finally {
-            StatusWatchRegistry.unregister(watchType, kcSessionId, tabId, entityIdStr, sink);
-            StatusWatchRegistry.markFinished(watchType, kcSessionId, tabId, entityIdStr);
-            close(sink);
+            UUID.fromString(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
         }
     }
 
-    private boolean isMatchingEntity(AuthenticationSessionModel as,
+    private static boolean isMatchingEntity(AuthenticationSessionModel as,
                                      String entityIdStr,
                                      Function<AuthenticationSessionModel, String> resolver) {
         if (resolver == null) return true;
@@ -230,6 +281,21 @@ public class StatusWatchResource {
         }
     }
 
+    private static boolean isStillActive(KeycloakSession kc,
+                                         RealmModel realm,
+                                         String rootId,
+                                         String tabId,
+                                         String entityIdStr,
+                                         Function<AuthenticationSessionModel, String> resolver) {
+        if (realm == null) return false;
+        RootAuthenticationSessionModel root = kc.authenticationSessions()
+                .getRootAuthenticationSession(realm, rootId);
+        if (root == null) return false;
+        AuthenticationSessionModel as = root.getAuthenticationSessions()
+                .get(tabId);
+        return as != null && isMatchingEntity(as, entityIdStr, resolver);
+    }
+
     private AuthenticationSessionModel resolveAuthSession(RootAuthenticationSessionModel root, String tabId) {
         ClientModel kcClient = session.getContext()
                 .getClient();
@@ -237,15 +303,17 @@ public class StatusWatchResource {
                 ? root.getAuthenticationSession(kcClient, tabId)
                 : null;
 
-        if (as != null) return as;
-        for (AuthenticationSessionModel child : root.getAuthenticationSessions()
-                .values()) {
-            if (Objects.equals(tabId, child.getTabId())) return child;
-        }
-        return null;
+        if (as != null || tabId == null) return as;
+        // Sessions are keyed by tab id, so no scan is needed when the request carries no client.
+        return root.getAuthenticationSessions()
+                .get(tabId);
     }
 
-    private static boolean safeSendStatus(SseEventSink sink, Sse sse, int reconnectMs, FlowStatusDto status) {
+    /**
+     * The delay goes out both as the SSE {@code retry} field and as {@code pollAfterMs} in the payload, since
+     * the login theme reconnects on its own schedule rather than through the browser's built-in retry.
+     */
+    static boolean safeSendStatus(SseEventSink sink, Sse sse, int reconnectMs, FlowStatusDto status) {
         try {
             if (sink == null || sink.isClosed()) return false;
             OutboundSseEvent event = sse.newEventBuilder()
@@ -253,6 +321,7 @@ public class StatusWatchResource {
                     .reconnectDelay(reconnectMs)
                     .data(StatusResponseDto.class, StatusResponseDto.builder()
                             .status(status)
+                            .pollAfterMs(reconnectMs)
                             .build())
                     .build();
             sink.send(event);
@@ -268,7 +337,7 @@ public class StatusWatchResource {
         close(sink);
     }
 
-    private static void close(SseEventSink sink) {
+    static void close(SseEventSink sink) {
         try {
             if (sink != null && !sink.isClosed()) sink.close();
         } catch (Exception ignored) {
@@ -276,6 +345,7 @@ public class StatusWatchResource {
     }
 
     private static void closeWatch(String type, String rootId, String tabId, String entityIdStr) {
-        StatusWatchRegistry.close(type, rootId, tabId, entityIdStr);
+        // The browser's beacon: it may reload and reopen this watch, so the flow is not retired.
+        StatusWatchRegistry.disconnect(type, rootId, tabId, entityIdStr);
     }
 }
@@ -1,5 +1,7 @@
 package knemognition.heartauth.spi.status;
 
+import knemognition.heartauth.spi.gateway.HaTracing;
+import knemognition.heartauth.spi.gateway.OrchHttp;
 import org.keycloak.Config;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
@@ -19,6 +21,8 @@ public class StatusWatchResourceProviderFactory implements RealmResourceProvider
     }
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        HaTracing.init(factory);
+        OrchHttp.warmUpOnStartup(factory);
     }
 
     @Override
@@ -0,0 +1,182 @@
+package knemognition.heartauth.spi.status;
+
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import org.jboss.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed-wheel timer shared by every status watch on this node: the due-time of each watch's next step, which
+ * is never later than the flow's expiry.
+ * <p>
+ * Scheduling and cancellation are O(1) queue offers; a single worker thread moves new timeouts into their
+ * bucket, unlinks cancelled ones and fires the current bucket once per tick. Tasks run on the worker thread,
+ * so they must only hand work off (to the watch executor, or by unparking the watch's request thread) and
+ * never block.
+ */
+final class WatchTimer {
+
+    private static final Logger LOG = Logger.getLogger(WatchTimer.class);
+
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final Bucket[] WHEEL = new Bucket[WHEEL_SIZE];
+    private static final Queue<Timeout> PENDING = new ConcurrentLinkedQueue<>();
+    private static final Queue<Timeout> CANCELLED = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private static volatile long startNanos;
+    private static long tick;
+
+    static {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            WHEEL[i] = new Bucket();
+        }
+    }
+
+    private WatchTimer() {
+    }
+
+    static Timeout schedule(long delayMs, Runnable task) {
+        start();
+        Timeout t = new Timeout(task, System.nanoTime() + Math.max(0, delayMs) * 1_000_000);
+        PENDING.add(t);
+        return t;
+    }
+
+    private static void start() {
+        if (STARTED.get() || !STARTED.compareAndSet(false, true)) return;
+        startNanos = System.nanoTime();
+        HaExecutors.threadFactory("ha-watch-timer-")
+                .newThread(WatchTimer::run)
+                .start();
+    }
+
+    private static void run() {
+        while (!Thread.currentThread()
+                .isInterrupted()) {
+            long deadline = startNanos + (tick + 1) * TICK_MS * 1_000_000;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread()
+                            .interrupt();
+                    return;
+                }
+            }
+            removeCancelled();
+            transferPending();
+            WHEEL[(int) (tick & MASK)].expire(tick);
+            tick++;
+        }
+    }
+
+    private static void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout t = PENDING.poll();
+            if (t == null) return;
+            if (t.state.get() != Timeout.PENDING) continue;
+            long due = Math.max(tick, (t.deadlineNanos - startNanos) / (TICK_MS * 1_000_000));
+            t.deadlineTick = due;
+            WHEEL[(int) (due & MASK)].add(t);
+        }
+    }
+
+    private static void removeCancelled() {
+        Timeout t;
+        while ((t = CANCELLED.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long deadlineTick;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return {@code true} once the task has been run (or is running)
+         */
+        boolean fired() {
+            return state.get() == EXPIRED;
+        }
+
+        /**
+         * @return {@code true} when the task had not fired yet and now never will
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            WatchTimer.CANCELLED.add(this);
+            return true;
+        }
+    }
+
+    /**
+     * Doubly-linked list of timeouts; only touched by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) t.prev.next = t.next;
+            else head = t.next;
+            if (t.next != null) t.next.prev = t.prev;
+            else tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+
+        void expire(long currentTick) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.deadlineTick <= currentTick) {
+                    remove(t);
+                    if (t.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                        try {
+                            t.task.run();
+                        } catch (Throwable ex) {
+                            LOG.warn("Watch timer task failed", ex);
+                        }
+                    }
+                }
+                t = next;
+            }
+        }
+    }
+}
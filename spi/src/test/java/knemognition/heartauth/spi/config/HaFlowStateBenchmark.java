@@ -0,0 +1,96 @@
+package knemognition.heartauth.spi.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static knemognition.heartauth.spi.config.HaFlowStateTest.EXP;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.ID;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.JWT;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.LEGACY_CHALLENGE_ID;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.LEGACY_EXP;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.LEGACY_PAIRING_JTI;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.LEGACY_PAIRING_JWT;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.LEGACY_TTL;
+import static knemognition.heartauth.spi.config.HaFlowStateTest.TTL;
+
+/**
+ * Write and render cost of the single-note flow state against the separate notes it replaced, plus the
+ * replicated bytes of each layout. Not run by surefire; after {@code mvn test-compile}:
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     knemognition.heartauth.spi.config.HaFlowStateBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HaFlowStateBenchmark {
+
+    private final Map<String, String> legacyNotes = new HashMap<>();
+    private final Map<String, String> notes = new HashMap<>();
+
+    @Benchmark
+    public void legacyChallengeWriteAndRender(Blackhole bh) {
+        legacyNotes.put(LEGACY_CHALLENGE_ID, ID);
+        legacyNotes.put(LEGACY_TTL, Long.toString(TTL));
+        legacyNotes.put(LEGACY_EXP, Long.toString(EXP));
+
+        bh.consume(legacyNotes.get(LEGACY_CHALLENGE_ID));
+        bh.consume(Long.parseLong(legacyNotes.get(LEGACY_TTL)));
+        bh.consume(Long.parseLong(legacyNotes.get(LEGACY_EXP)));
+    }
+
+    @Benchmark
+    public HaFlowState challengeWriteAndRender() {
+        notes.put(HaSessionNotes.ECG_STATE, HaFlowState.of(ID, TTL, EXP)
+                .encode());
+        return HaFlowState.decode(notes.get(HaSessionNotes.ECG_STATE));
+    }
+
+    @Benchmark
+    public void legacyPairingWriteAndRender(Blackhole bh) {
+        legacyNotes.put(LEGACY_PAIRING_JTI, ID);
+        legacyNotes.put(LEGACY_PAIRING_JWT, JWT);
+        legacyNotes.put(LEGACY_TTL, Long.toString(TTL));
+        legacyNotes.put(LEGACY_EXP, Long.toString(EXP));
+
+        bh.consume(legacyNotes.get(LEGACY_PAIRING_JTI));
+        bh.consume(legacyNotes.get(LEGACY_PAIRING_JWT));
+        bh.consume(Long.parseLong(legacyNotes.get(LEGACY_TTL)));
+        bh.consume(Long.parseLong(legacyNotes.get(LEGACY_EXP)));
+    }
+
+    @Benchmark
+    public HaFlowState pairingWriteAndRender() {
+        notes.put(HaSessionNotes.PAIRING_STATE, new HaFlowState(ID, TTL, EXP, JWT).encode());
+        return HaFlowState.decode(notes.get(HaSessionNotes.PAIRING_STATE));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new HaFlowStateTest().challengeStateReplicatesFewerBytesThanSeparateNotes();
+        new HaFlowStateTest().pairingStateReplicatesFewerBytesThanSeparateNotes();
+        new Runner(new OptionsBuilder()
+                .include(HaFlowStateBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,98 @@
+package knemognition.heartauth.spi.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HaFlowStateTest {
+
+    // Note keys used before the single-note encoding, kept here only to size the old layout.
+    static final String LEGACY_CHALLENGE_ID = "ecg.challengeId";
+    static final String LEGACY_PAIRING_JTI = "ecg.pair.jti";
+    static final String LEGACY_PAIRING_JWT = "ecg.pair.jwt";
+    static final String LEGACY_TTL = "ecg.ttl";
+    static final String LEGACY_EXP = "ecg.exp";
+
+    static final String ID = UUID.randomUUID()
+            .toString();
+    static final long TTL = 120;
+    static final long EXP = 1_760_000_000L;
+    static final String JWT = "eyJhbGciOiJIUzI1NiJ9." + "x".repeat(220) + ".c2lnbmF0dXJl";
+
+    @Test
+    void roundTripsChallengeState() {
+        HaFlowState state = HaFlowState.of(ID, TTL, EXP);
+        assertEquals(state, HaFlowState.decode(state.encode()));
+    }
+
+    @Test
+    void roundTripsPairingStateWithSeparatorFreePayload() {
+        HaFlowState state = new HaFlowState(ID, TTL, EXP, JWT);
+        assertEquals(state, HaFlowState.decode(state.encode()));
+        assertEquals(ID, HaFlowState.idOf(state.encode()));
+    }
+
+    @Test
+    void rejectsMissingMalformedAndForeignVersions() {
+        assertNull(HaFlowState.decode(null));
+        assertNull(HaFlowState.decode(""));
+        assertNull(HaFlowState.decode("1|" + ID));
+        assertNull(HaFlowState.decode("1|" + ID + "|x|" + EXP));
+        assertNull(HaFlowState.decode("1| |" + TTL + "|" + EXP));
+        assertNull(HaFlowState.decode("2|" + ID + "|" + TTL + "|" + EXP));
+    }
+
+    @Test
+    void challengeStateReplicatesFewerBytesThanSeparateNotes() {
+        Map<String, String> legacy = new LinkedHashMap<>();
+        legacy.put(LEGACY_CHALLENGE_ID, ID);
+        legacy.put(LEGACY_TTL, Long.toString(TTL));
+        legacy.put(LEGACY_EXP, Long.toString(EXP));
+
+        int before = replicatedBytes(legacy);
+        int after = replicatedBytes(Map.of(HaSessionNotes.ECG_STATE, HaFlowState.of(ID, TTL, EXP)
+                .encode()));
+        assertTrue(after < before, () -> legacy.size() + " notes / " + before + " bytes -> 1 note / " + after + " bytes");
+    }
+
+    @Test
+    void pairingStateReplicatesFewerBytesThanSeparateNotes() {
+        Map<String, String> legacy = new LinkedHashMap<>();
+        legacy.put(LEGACY_PAIRING_JTI, ID);
+        legacy.put(LEGACY_PAIRING_JWT, JWT);
+        legacy.put(LEGACY_TTL, Long.toString(TTL));
+        legacy.put(LEGACY_EXP, Long.toString(EXP));
+
+        int before = replicatedBytes(legacy);
+        int after = replicatedBytes(Map.of(HaSessionNotes.PAIRING_STATE, new HaFlowState(ID, TTL, EXP, JWT)
+                .encode()));
+        assertTrue(after < before, () -> legacy.size() + " notes / " + before + " bytes -> 1 note / " + after + " bytes");
+    }
+
+    /**
+     * Approximates what a note map costs on the wire: an entry count and length-prefixed UTF-8 keys and
+     * values, the shape the session marshaller writes for string maps.
+     */
+    static int replicatedBytes(Map<String, String> notes) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            out.writeInt(notes.size());
+            for (Map.Entry<String, String> e : notes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buf.size();
+    }
+}
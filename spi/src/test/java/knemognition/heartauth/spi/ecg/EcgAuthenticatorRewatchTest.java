@@ -0,0 +1,103 @@
+package knemognition.heartauth.spi.ecg;
+
+import jakarta.ws.rs.sse.SseEventSink;
+import knemognition.heartauth.spi.config.HaFlowState;
+import knemognition.heartauth.spi.config.HaSessionNotes;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import knemognition.heartauth.spi.status.StatusWatchRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.tracing.NoopTracingProvider;
+import org.keycloak.tracing.TracingProvider;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EcgAuthenticatorRewatchTest {
+
+    private OrchestratorStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new OrchestratorStub();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void reRenderingTheSameChallengeLetsTheNewPageWatchIt() {
+        AuthenticationFlowContext ctx = context();
+        EcgAuthenticator authenticator = new EcgAuthenticator();
+
+        authenticator.authenticate(ctx);
+        AuthenticationSessionModel as = ctx.getAuthenticationSession();
+        HaFlowState state = HaFlowState.decode(as.getAuthNote(HaSessionNotes.ECG_STATE));
+        assertNotNull(state);
+        String root = as.getParentSession()
+                .getId();
+        SseEventSink firstPage = mock(SseEventSink.class);
+        assertTrue(StatusWatchRegistry.register(StatusWatchRegistry.TYPE_ECG, root, as.getTabId(), state.id(),
+                firstPage));
+
+        // Refresh: the flow re-enters authenticate() with the challenge still in the session.
+        authenticator.authenticate(ctx);
+
+        assertEquals(state.id(), HaFlowState.idOf(as.getAuthNote(HaSessionNotes.ECG_STATE)));
+        assertEquals(1, stub.created());
+        verify(firstPage).close();
+        SseEventSink reloaded = mock(SseEventSink.class);
+        assertTrue(StatusWatchRegistry.register(StatusWatchRegistry.TYPE_ECG, root, as.getTabId(), state.id(),
+                reloaded), "the refreshed page must be able to watch its challenge");
+        assertTrue(StatusWatchRegistry.unregister(StatusWatchRegistry.TYPE_ECG, root, as.getTabId(), state.id(),
+                reloaded));
+    }
+
+    private AuthenticationFlowContext context() {
+        AuthenticationFlowContext ctx = mock(AuthenticationFlowContext.class, RETURNS_DEEP_STUBS);
+        KeycloakSession session = ctx.getSession();
+        doReturn(new NoopTracingProvider()).when(session)
+                .getProvider(TracingProvider.class);
+        RealmModel realm = stub.realm();
+        when(ctx.getRealm()).thenReturn(realm);
+
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn(UUID.randomUUID()
+                .toString());
+        when(ctx.getUser()).thenReturn(user);
+
+        AuthenticationSessionModel as = mock(AuthenticationSessionModel.class, RETURNS_DEEP_STUBS);
+        String root = "root-" + UUID.randomUUID();
+        when(as.getParentSession()
+                .getId()).thenReturn(root);
+        when(as.getTabId()).thenReturn("tab");
+        Map<String, String> notes = new HashMap<>();
+        doAnswer(inv -> notes.put(inv.getArgument(0), inv.getArgument(1))).when(as)
+                .setAuthNote(anyString(), anyString());
+        doAnswer(inv -> notes.remove(inv.<String>getArgument(0))).when(as)
+                .removeAuthNote(anyString());
+        when(as.getAuthNote(anyString())).thenAnswer(inv -> notes.get(inv.<String>getArgument(0)));
+        when(ctx.getAuthenticationSession()).thenReturn(as);
+        return ctx;
+    }
+}
@@ -0,0 +1,78 @@
+package knemognition.heartauth.spi.ecg;
+
+import knemognition.heartauth.spi.config.ResendLimit;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EcgPrefetchAuthenticatorTest {
+
+    private OrchestratorStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new OrchestratorStub();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void prefetchesBeyondTheResendBurstAreSkipped() throws Exception {
+        RealmModel realm = stub.realm();
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn(UUID.randomUUID()
+                .toString());
+        EcgPrefetchAuthenticator authenticator = new EcgPrefetchAuthenticator();
+
+        // A fresh login (new tab) each time, as a script knowing only the username would do.
+        int attempts = ResendLimit.DEFAULT.burst() + 3;
+        AuthenticationFlowContext[] contexts = new AuthenticationFlowContext[attempts];
+        for (int i = 0; i < attempts; i++) {
+            contexts[i] = context(realm, user, "tab" + i);
+            authenticator.authenticate(contexts[i]);
+        }
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (stub.createRequests() < ResendLimit.DEFAULT.burst() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(200);
+        assertEquals(ResendLimit.DEFAULT.burst(), stub.createRequests(), "pushes for one user");
+        for (AuthenticationFlowContext ctx : contexts) {
+            verify(ctx, times(1)).success();
+            EcgChallengePrefetch.discard(ctx.getAuthenticationSession());
+        }
+    }
+
+    private static AuthenticationFlowContext context(RealmModel realm, UserModel user, String tabId) {
+        AuthenticationFlowContext ctx = mock(AuthenticationFlowContext.class, RETURNS_DEEP_STUBS);
+        when(ctx.getRealm()).thenReturn(realm);
+        when(ctx.getUser()).thenReturn(user);
+        when(ctx.getConnection()
+                .getRemoteAddr()).thenReturn("198.51.100.7");
+        AuthenticationSessionModel as = mock(AuthenticationSessionModel.class, RETURNS_DEEP_STUBS);
+        String root = "root-" + UUID.randomUUID();
+        when(as.getParentSession()
+                .getId()).thenReturn(root);
+        when(as.getTabId()).thenReturn(tabId);
+        when(ctx.getAuthenticationSession()).thenReturn(as);
+        return ctx;
+    }
+}
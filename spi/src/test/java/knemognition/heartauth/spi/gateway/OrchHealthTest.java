@@ -0,0 +1,45 @@
+package knemognition.heartauth.spi.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrchHealthTest {
+
+    @Test
+    void orchestratorWithoutARootRouteIsReportedUp() throws Exception {
+        try (OrchestratorStub stub = new OrchestratorStub()) {
+            OrchHealth.Probe probe = probed(stub.baseUri());
+            assertTrue(probe.up(), probe::detail);
+            assertTrue(probe.detail()
+                    .contains("404"), probe::detail);
+        }
+    }
+
+    @Test
+    void refusedConnectionIsReportedDown() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        OrchHealth.Probe probe = probed("http://127.0.0.1:" + port);
+        assertFalse(probe.up(), probe::detail);
+    }
+
+    private static OrchHealth.Probe probed(String baseUri) throws InterruptedException {
+        OrchHealth.track(baseUri);
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (OrchHealth.snapshot()
+                .get(baseUri)
+                .checkedAtMillis() == 0L && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        OrchHealth.Probe probe = OrchHealth.snapshot()
+                .get(baseUri);
+        assertTrue(probe.checkedAtMillis() > 0L, probe::detail);
+        return probe;
+    }
+}
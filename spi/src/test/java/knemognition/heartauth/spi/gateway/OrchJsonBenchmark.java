@@ -0,0 +1,63 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static knemognition.heartauth.spi.gateway.OrchJsonTest.generatedDefaultsPerPoll;
+import static knemognition.heartauth.spi.gateway.OrchJsonTest.generatedMapperReused;
+import static knemognition.heartauth.spi.gateway.OrchJsonTest.sharedStatusReader;
+
+/**
+ * Decode cost of one status poll body: the shared {@link OrchJson#STATUS_READER} against the generated
+ * {@code ApiClient} defaults, both as they were built per poll and with the mapper kept. Use the gc profiler's
+ * {@code gc.alloc.rate.norm} for bytes per poll. Not run by surefire; after {@code mvn test-compile}:
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     knemognition.heartauth.spi.gateway.OrchJsonBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrchJsonBenchmark {
+
+    @Benchmark
+    public StatusResponseDto generatedDefaultsPerPollDecode() throws IOException {
+        return generatedDefaultsPerPoll();
+    }
+
+    @Benchmark
+    public StatusResponseDto generatedMapperReusedDecode() throws IOException {
+        return generatedMapperReused();
+    }
+
+    @Benchmark
+    public StatusResponseDto sharedStatusReaderDecode() throws IOException {
+        return sharedStatusReader();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OrchJsonBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package knemognition.heartauth.spi.gateway;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import knemognition.heartauth.orchestrator.ApiClient;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrchJsonTest {
+
+    // A pending poll as the orchestrator sends it, with a field this client version does not know.
+    static final byte[] STATUS_BODY = "{\"status\":\"PENDING\",\"pollAfterMs\":1000,\"region\":\"eu-1\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final ObjectMapper GENERATED_MAPPER = new ApiClient().getObjectMapper();
+    private static final TypeReference<StatusResponseDto> STATUS_TYPE = new TypeReference<>() {
+    };
+
+    private static final int WARMUP = 2_000;
+    private static final int POLLS = 2_000;
+
+    @Test
+    void sharedReaderDecodesLikeTheGeneratedDefaults() throws IOException {
+        StatusResponseDto expected = generatedDefaultsPerPoll();
+        assertEquals(FlowStatusDto.PENDING, expected.getStatus());
+        assertEquals(expected, sharedStatusReader());
+        assertEquals(expected, generatedMapperReused());
+    }
+
+    @Test
+    void sharedReaderAllocatesLessPerPollThanTheGeneratedDefaults() throws IOException {
+        long perPoll = bytesPerPoll(OrchJsonTest::generatedDefaultsPerPoll);
+        long reused = bytesPerPoll(OrchJsonTest::generatedMapperReused);
+        long shared = bytesPerPoll(OrchJsonTest::sharedStatusReader);
+        Supplier<String> report = () -> "per poll: generated " + perPoll + " B, generated mapper reused " + reused
+                + " B, shared reader " + shared + " B";
+
+        assertTrue(shared < perPoll / 10, report);
+        assertTrue(shared <= reused, report);
+    }
+
+    /**
+     * What the client did before {@link OrchJson}: a fresh {@code ApiClient} per poll, whose two API objects each
+     * take a copy of its mapper, then a decode on that cold copy.
+     */
+    static StatusResponseDto generatedDefaultsPerPoll() throws IOException {
+        ApiClient apiClient = new ApiClient();
+        ObjectMapper challengeMapper = apiClient.getObjectMapper();
+        apiClient.getObjectMapper();
+        return challengeMapper.readValue(new ByteArrayInputStream(STATUS_BODY), STATUS_TYPE);
+    }
+
+    static StatusResponseDto generatedMapperReused() throws IOException {
+        return GENERATED_MAPPER.readValue(new ByteArrayInputStream(STATUS_BODY), STATUS_TYPE);
+    }
+
+    static StatusResponseDto sharedStatusReader() throws IOException {
+        return OrchJson.STATUS_READER.readValue(new ByteArrayInputStream(STATUS_BODY));
+    }
+
+    private static long bytesPerPoll(Decode decode) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARMUP; i++) {
+            decode.run();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < POLLS; i++) {
+            decode.run();
+        }
+        return (threads.getCurrentThreadAllocatedBytes() - before) / POLLS;
+    }
+
+    @FunctionalInterface
+    private interface Decode {
+        StatusResponseDto run() throws IOException;
+    }
+}
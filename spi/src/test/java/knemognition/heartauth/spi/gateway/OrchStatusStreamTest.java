@@ -0,0 +1,96 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusEntityTypeDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.spi.config.HaNodeSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrchStatusStreamTest {
+
+    private static final String HEARTBEAT_PROPERTY = HaNodeSettings.STATUS_STREAM_HEARTBEAT_SECONDS.toLowerCase()
+            .replace('_', '.');
+
+    private OrchestratorStub stub;
+    private OrchStatusStream stream;
+    private final UUID id = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        System.setProperty(HEARTBEAT_PROPERTY, "1");
+        stub = new OrchestratorStub();
+        stream = OrchStatusStream.of(stub.baseUri(), OrchestratorStub.API_KEY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stream.unwatch(StatusEntityTypeDto.CHALLENGE, id);
+        stub.endStreams();
+        stub.close();
+        System.clearProperty(HEARTBEAT_PROPERTY);
+    }
+
+    @Test
+    void pushesCurrentStatusOnSubscribeAndEveryChange() throws Exception {
+        stream.watch(StatusEntityTypeDto.CHALLENGE, id);
+        awaitStatus(FlowStatusDto.PENDING);
+
+        stub.status(id, FlowStatusDto.APPROVED);
+        awaitStatus(FlowStatusDto.APPROVED);
+        assertEquals(1, stub.streamsOpened());
+    }
+
+    @Test
+    void silentStreamIsDroppedAndReopened() throws Exception {
+        stream.watch(StatusEntityTypeDto.CHALLENGE, id);
+        awaitStatus(FlowStatusDto.PENDING);
+
+        stub.silenceStreams(true);
+        await("snapshots dropped after missed keep-alives", () -> snapshot() == null);
+        stub.silenceStreams(false);
+
+        awaitStatus(FlowStatusDto.PENDING);
+        assertTrue(stub.streamsOpened() >= 2, () -> stub.streamsOpened() + " streams opened");
+    }
+
+    @Test
+    void endedStreamStopsServingSnapshotsAndResubscribesOnReconnect() throws Exception {
+        stream.watch(StatusEntityTypeDto.CHALLENGE, id);
+        awaitStatus(FlowStatusDto.PENDING);
+
+        stub.status(id, FlowStatusDto.APPROVED);
+        awaitStatus(FlowStatusDto.APPROVED);
+        stub.endStreams();
+        await("snapshots dropped with the stream", () -> snapshot() == null);
+
+        awaitStatus(FlowStatusDto.APPROVED);
+        assertEquals(2, stub.streamsOpened());
+    }
+
+    private StatusResponseDto snapshot() {
+        return stream.snapshot(StatusEntityTypeDto.CHALLENGE, id);
+    }
+
+    private void awaitStatus(FlowStatusDto expected) throws InterruptedException {
+        await("status " + expected, () -> {
+            StatusResponseDto s = snapshot();
+            return s != null && s.getStatus() == expected;
+        });
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 15_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, () -> "timed out waiting for " + what);
+            Thread.sleep(20);
+        }
+    }
+}
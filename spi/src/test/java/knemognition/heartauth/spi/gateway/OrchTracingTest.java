@@ -0,0 +1,80 @@
+package knemognition.heartauth.spi.gateway;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.spi.config.HaAttributes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.RealmModel;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+class OrchTracingTest {
+
+    private OrchestratorStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new OrchestratorStub();
+        TestTracing.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void orchestratorCallIsAClientSpanUnderTheLoginAndSendsItsTraceparent() throws Exception {
+        Span login = HaTracing.tracer()
+                .spanBuilder("login")
+                .startSpan();
+        try (Scope ignored = login.makeCurrent()) {
+            stub.client()
+                    .createChallenge(UUID.randomUUID(), UUID.randomUUID()
+                            .toString());
+        } finally {
+            login.end();
+        }
+
+        SpanData call = TestTracing.span("orchestrator createChallenge");
+        assertEquals(SpanKind.CLIENT, call.getKind());
+        assertEquals(login.getSpanContext()
+                .getTraceId(), call.getTraceId());
+        assertEquals(login.getSpanContext()
+                .getSpanId(), call.getParentSpanId());
+        assertEquals("createChallenge", call.getAttributes()
+                .get(AttributeKey.stringKey("rpc.method")));
+        assertEquals("00-" + call.getTraceId() + "-" + call.getSpanId() + "-01", stub.lastHeader("traceparent"));
+    }
+
+    @Test
+    void failedCallRecordsTheStatusCodeAndError() {
+        RealmModel realm = stub.realm();
+        when(realm.getAttribute(HaAttributes.STATUS_API_KEY)).thenReturn("wrong-key");
+        OrchClient client = OrchClient.clientFromRealm(realm);
+
+        ApiException e = assertThrows(ApiException.class,
+                () -> client.getChallengeStatus(UUID.randomUUID(), OrchPriority.BACKGROUND));
+
+        SpanData call = TestTracing.span("orchestrator getChallengeStatus");
+        assertEquals(401, e.getCode());
+        assertEquals(StatusCode.ERROR, call.getStatus()
+                .getStatusCode());
+        assertEquals(401L, call.getAttributes()
+                .get(AttributeKey.longKey("http.response.status_code")));
+        assertEquals("exception", call.getEvents()
+                .get(0)
+                .getName());
+    }
+}
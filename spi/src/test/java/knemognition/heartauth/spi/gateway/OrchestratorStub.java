@@ -0,0 +1,378 @@
+package knemognition.heartauth.spi.gateway;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import knemognition.heartauth.orchestrator.model.CreateChallengeResponseDto;
+import knemognition.heartauth.orchestrator.model.CreatePairingResponseDto;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusEventDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.orchestrator.model.StatusSubscriptionDto;
+import knemognition.heartauth.orchestrator.model.StatusSubscriptionUpdateDto;
+import knemognition.heartauth.spi.config.HaAttributes;
+import org.keycloak.models.RealmModel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * In-process orchestrator implementing the tenants contract closely enough for gateway tests: creates honour
+ * {@code Idempotency-Key}, statuses are settable per id and carry an ETag, and the status stream pushes the
+ * current status on subscribe and every later change, with blank-line keep-alives.
+ */
+public final class OrchestratorStub implements AutoCloseable {
+
+    public static final String API_KEY = "stub-key";
+
+    static {
+        // Headers and body go out as separate writes; without this every response waits on a delayed ACK.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final Map<String, Object> createdByKey = new ConcurrentHashMap<>();
+    private final Map<UUID, FlowStatusDto> statuses = new ConcurrentHashMap<>();
+    private final Map<String, String> lastHeaders = new ConcurrentHashMap<>();
+    private final AtomicInteger createRequests = new AtomicInteger();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger statusRequests = new AtomicInteger();
+    private volatile JsonNode lastCreateBody;
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger streamsOpened = new AtomicInteger();
+    private volatile long keepAliveMs = 200;
+    private volatile Integer pollAfterMs;
+    private volatile boolean streamsSilent;
+
+    private volatile long createDelayMs;
+    private final AtomicInteger failNextCreatesAfterCommit = new AtomicInteger();
+
+    public OrchestratorStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Platform threads, so the stub does not compete with the code under test for virtual-thread carriers.
+        server.setExecutor(Executors.newFixedThreadPool(16, r -> {
+            Thread t = new Thread(r, "orch-stub");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String baseUri() {
+        return "http://127.0.0.1:" + server.getAddress()
+                .getPort();
+    }
+
+    /**
+     * Realm configured to talk to this stub.
+     */
+    public RealmModel realm() {
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn("stub-realm");
+        when(realm.getAttribute(HaAttributes.STATUS_BASE_URL)).thenReturn(baseUri());
+        when(realm.getAttribute(HaAttributes.STATUS_API_KEY)).thenReturn(API_KEY);
+        when(realm.getAttribute(HaAttributes.PAIRING_TTL_SECONDS)).thenReturn("120");
+        when(realm.getAttribute(HaAttributes.CHALLENGE_TTL_SECONDS)).thenReturn("120");
+        return realm;
+    }
+
+    public OrchClient client() {
+        return OrchClient.clientFromRealm(realm());
+    }
+
+    public void createDelayMs(long ms) {
+        createDelayMs = ms;
+    }
+
+    /**
+     * The next {@code n} creates are committed and then answered with a 500, as if the response was lost.
+     */
+    public void failNextCreatesAfterCommit(int n) {
+        failNextCreatesAfterCommit.set(n);
+    }
+
+    public void status(UUID id, FlowStatusDto status) {
+        statuses.put(id, status);
+        streams.values()
+                .forEach(stream -> stream.push(id));
+    }
+
+    /**
+     * {@code pollAfterMs} hint on every status response; {@code null} (the default) sends none.
+     */
+    public void pollAfterMs(Integer ms) {
+        pollAfterMs = ms;
+    }
+
+    public void keepAliveMs(long ms) {
+        keepAliveMs = ms;
+    }
+
+    /**
+     * Open streams stay connected but send nothing, keep-alives included, like a peer that went away
+     * without closing the connection.
+     */
+    public void silenceStreams(boolean silent) {
+        streamsSilent = silent;
+    }
+
+    /**
+     * Ends every open stream, as an orchestrator restart would; the stream ids are forgotten.
+     */
+    public void endStreams() {
+        streams.values()
+                .forEach(Stream::end);
+    }
+
+    public int streamsOpened() {
+        return streamsOpened.get();
+    }
+
+    public int openStreams() {
+        return streams.size();
+    }
+
+    public int createRequests() {
+        return createRequests.get();
+    }
+
+    public int created() {
+        return created.get();
+    }
+
+    /**
+     * Body of the most recent create request, e.g. to check the requested {@code ttlSeconds}.
+     */
+    public JsonNode lastCreateBody() {
+        return lastCreateBody;
+    }
+
+    public int statusRequests() {
+        return statusRequests.get();
+    }
+
+    /**
+     * Last value seen for a request header on any path, e.g. {@code traceparent}.
+     */
+    public String lastHeader(String name) {
+        return lastHeaders.get(name.toLowerCase());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            ex.getRequestHeaders()
+                    .forEach((k, v) -> lastHeaders.put(k.toLowerCase(), v.get(0)));
+            String method = ex.getRequestMethod();
+            String path = ex.getRequestURI()
+                    .getPath();
+            if (path.equals("/")) {
+                // Like the orchestrator, nothing is served at the root.
+                ex.sendResponseHeaders(404, -1);
+            } else if (!API_KEY.equals(ex.getRequestHeaders()
+                    .getFirst("X-API-Key"))) {
+                ex.sendResponseHeaders(401, -1);
+            } else if ("POST".equals(method) && path.equals("/tenants/v1/challenge")) {
+                create(ex, () -> CreateChallengeResponseDto.builder()
+                        .challengeId(UUID.randomUUID())
+                        .ttl(120L)
+                        .exp(System.currentTimeMillis() / 1000 + 120)
+                        .build());
+            } else if ("POST".equals(method) && path.equals("/tenants/v1/pairing")) {
+                create(ex, () -> CreatePairingResponseDto.builder()
+                        .jti(UUID.randomUUID())
+                        .jwt("stub.jwt." + UUID.randomUUID())
+                        .ttl(120L)
+                        .exp(System.currentTimeMillis() / 1000 + 120)
+                        .build());
+            } else if ("GET".equals(method) && path.equals("/tenants/v1/status/stream")) {
+                stream(ex);
+            } else if ("PUT".equals(method) && path.matches("/tenants/v1/status/stream/[^/]+/subscriptions")) {
+                subscriptions(ex, path.split("/")[5]);
+            } else if ("GET".equals(method) && path.matches("/tenants/v1/(challenge|pairing)/status/[^/]+")) {
+                status(ex, UUID.fromString(path.substring(path.lastIndexOf('/') + 1)));
+            } else {
+                ex.sendResponseHeaders(404, -1);
+            }
+        }
+    }
+
+    private void create(HttpExchange ex, Supplier<Object> factory) throws IOException {
+        createRequests.incrementAndGet();
+        try (InputStream body = ex.getRequestBody()) {
+            JsonNode req = OrchJson.MAPPER.readTree(body);
+            lastCreateBody = req;
+            if (!req.hasNonNull("userId") || !ttlInContract(req.get("ttlSeconds"))) {
+                ex.sendResponseHeaders(400, -1);
+                return;
+            }
+        }
+        sleep(createDelayMs);
+        String key = ex.getRequestHeaders()
+                .getFirst("Idempotency-Key");
+        Object resource = key == null
+                ? newResource(factory)
+                : createdByKey.computeIfAbsent(key, k -> newResource(factory));
+        if (failNextCreatesAfterCommit.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            ex.sendResponseHeaders(500, -1);
+            return;
+        }
+        json(ex, 201, resource, null);
+    }
+
+    /**
+     * {@code ttlSeconds} bounds of both create requests in tenants.yml; absent means the default.
+     */
+    private static boolean ttlInContract(JsonNode ttl) {
+        return ttl == null || ttl.isNull() || ttl.canConvertToInt() && ttl.asInt() >= 30 && ttl.asInt() <= 300;
+    }
+
+    private Object newResource(Supplier<Object> factory) {
+        created.incrementAndGet();
+        return factory.get();
+    }
+
+    private void status(HttpExchange ex, UUID id) throws IOException {
+        statusRequests.incrementAndGet();
+        FlowStatusDto status = statuses.getOrDefault(id, FlowStatusDto.PENDING);
+        String etag = "\"" + status.getValue() + "\"";
+        if (etag.equals(ex.getRequestHeaders()
+                .getFirst("If-None-Match"))) {
+            ex.getResponseHeaders()
+                    .set("ETag", etag);
+            ex.sendResponseHeaders(304, -1);
+            return;
+        }
+        json(ex, 200, StatusResponseDto.builder()
+                .status(status)
+                .pollAfterMs(pollAfterMs)
+                .build(), etag);
+    }
+
+    private void stream(HttpExchange ex) throws IOException {
+        Stream stream = new Stream(UUID.randomUUID()
+                .toString(), ex.getResponseBody());
+        ex.getResponseHeaders()
+                .set("Content-Type", "application/x-ndjson");
+        ex.getResponseHeaders()
+                .set("X-Stream-Id", stream.id);
+        ex.sendResponseHeaders(200, 0);
+        streams.put(stream.id, stream);
+        streamsOpened.incrementAndGet();
+        try {
+            while (stream.open) {
+                sleep(keepAliveMs);
+                if (!streamsSilent) {
+                    stream.write("");
+                }
+            }
+        } finally {
+            streams.remove(stream.id);
+        }
+    }
+
+    private void subscriptions(HttpExchange ex, String streamId) throws IOException {
+        StatusSubscriptionUpdateDto update;
+        try (InputStream body = ex.getRequestBody()) {
+            update = OrchJson.MAPPER.readValue(body, StatusSubscriptionUpdateDto.class);
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            ex.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (update.getUnsubscribe() != null) {
+            update.getUnsubscribe()
+                    .forEach(sub -> stream.subscribed.remove(sub.getId()));
+        }
+        ex.sendResponseHeaders(204, -1);
+        if (update.getSubscribe() != null) {
+            for (StatusSubscriptionDto sub : update.getSubscribe()) {
+                stream.subscribed.put(sub.getId(), sub);
+                stream.push(sub.getId());
+            }
+        }
+    }
+
+    private final class Stream {
+        final String id;
+        final OutputStream out;
+        final Map<UUID, StatusSubscriptionDto> subscribed = new ConcurrentHashMap<>();
+        volatile boolean open = true;
+
+        Stream(String id, OutputStream out) {
+            this.id = id;
+            this.out = out;
+        }
+
+        void push(UUID entity) {
+            StatusSubscriptionDto sub = subscribed.get(entity);
+            if (sub == null || streamsSilent) return;
+            try {
+                write(OrchJson.MAPPER.writeValueAsString(StatusEventDto.builder()
+                        .type(sub.getType())
+                        .id(entity)
+                        .status(statuses.getOrDefault(entity, FlowStatusDto.PENDING))
+                        .build()));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        synchronized void write(String line) {
+            if (!open) return;
+            try {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException gone) {
+                open = false;
+            }
+        }
+
+        void end() {
+            open = false;
+            streams.remove(id);
+        }
+    }
+
+    private static void json(HttpExchange ex, int code, Object body, String etag) throws IOException {
+        byte[] bytes = OrchJson.MAPPER.writeValueAsString(body)
+                .getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders()
+                .set("Content-Type", "application/json");
+        if (etag != null) {
+            ex.getResponseHeaders()
+                    .set("ETag", etag);
+        }
+        ex.sendResponseHeaders(code, bytes.length);
+        ex.getResponseBody()
+                .write(bytes);
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+}
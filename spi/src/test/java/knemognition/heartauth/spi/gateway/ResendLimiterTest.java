@@ -0,0 +1,59 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.spi.config.ResendLimit;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResendLimiterTest {
+
+    private static final ResendLimit TWO_PER_HOUR = new ResendLimit(2, 1);
+
+    @Test
+    void rejectionByTheAddressDoesNotSpendTheUsersToken() {
+        String realm = UUID.randomUUID()
+                .toString();
+        assertTrue(ResendLimiter.tryAcquire(realm, "first", "10.0.0.1", TWO_PER_HOUR));
+        assertTrue(ResendLimiter.tryAcquire(realm, "first", "10.0.0.1", TWO_PER_HOUR));
+
+        assertFalse(ResendLimiter.tryAcquire(realm, "second", "10.0.0.1", TWO_PER_HOUR));
+        assertFalse(ResendLimiter.tryAcquire(realm, "second", "10.0.0.1", TWO_PER_HOUR));
+
+        assertTrue(ResendLimiter.tryAcquire(realm, "second", "10.0.0.2", TWO_PER_HOUR));
+        assertTrue(ResendLimiter.tryAcquire(realm, "second", "10.0.0.2", TWO_PER_HOUR));
+        assertFalse(ResendLimiter.tryAcquire(realm, "second", "10.0.0.2", TWO_PER_HOUR));
+    }
+
+    @Test
+    void rejectionByTheUserDoesNotSpendTheAddressToken() {
+        String realm = UUID.randomUUID()
+                .toString();
+        assertTrue(ResendLimiter.tryAcquire(realm, "user", "10.0.0.1", TWO_PER_HOUR));
+        assertTrue(ResendLimiter.tryAcquire(realm, "user", "10.0.0.1", TWO_PER_HOUR));
+        assertFalse(ResendLimiter.tryAcquire(realm, "user", "10.0.0.2", TWO_PER_HOUR));
+
+        assertTrue(ResendLimiter.tryAcquire(realm, "other", "10.0.0.2", TWO_PER_HOUR));
+        assertTrue(ResendLimiter.tryAcquire(realm, "other", "10.0.0.2", TWO_PER_HOUR));
+    }
+
+    @Test
+    void floodOfNewKeysDoesNotResetAnExhaustedUser() {
+        String realm = UUID.randomUUID()
+                .toString();
+        ResendLimit slow = new ResendLimit(3, 1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(ResendLimiter.tryAcquire(realm, "hot", null, slow));
+        }
+        assertFalse(ResendLimiter.tryAcquire(realm, "hot", null, slow));
+
+        ResendLimit fast = new ResendLimit(1, 60);
+        for (int i = 0; i < 100_000; i++) {
+            ResendLimiter.tryAcquire(realm, "u" + i, null, fast);
+        }
+
+        assertFalse(ResendLimiter.tryAcquire(realm, "hot", null, slow));
+    }
+}
@@ -0,0 +1,99 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.ApiException;
+import knemognition.heartauth.orchestrator.model.CreateChallengeResponseDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    private OrchestratorStub stub;
+    private OrchClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new OrchestratorStub();
+        client = stub.client();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void sameIdempotencyKeyTwiceCreatesOneChallenge() throws Exception {
+        UUID userId = UUID.randomUUID();
+        String key = UUID.randomUUID()
+                .toString();
+
+        CreateChallengeResponseDto first = client.createChallenge(userId, key);
+        CreateChallengeResponseDto second = client.createChallenge(userId, key);
+
+        assertEquals(first.getChallengeId(), second.getChallengeId());
+        assertEquals(2, stub.createRequests());
+        assertEquals(1, stub.created());
+    }
+
+    @Test
+    void concurrentCreatesForOneTabAreCoalesced() throws Exception {
+        stub.createDelayMs(300);
+        SingleFlight<CreateChallengeResponseDto> flights = new SingleFlight<>();
+        UUID userId = UUID.randomUUID();
+
+        List<Future<CreateChallengeResponseDto>> results = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; i++) {
+                results.add(pool.submit(() -> flights.run("tab", k -> client.createChallenge(userId, k))));
+            }
+        }
+
+        UUID id = results.get(0)
+                .get()
+                .getChallengeId();
+        for (Future<CreateChallengeResponseDto> r : results) {
+            assertEquals(id, r.get()
+                    .getChallengeId());
+        }
+        assertEquals(1, stub.createRequests());
+    }
+
+    @Test
+    void createRetriedAfterLostResponseReusesTheKey() throws Exception {
+        stub.failNextCreatesAfterCommit(1);
+        SingleFlight<CreateChallengeResponseDto> flights = new SingleFlight<>();
+        UUID userId = UUID.randomUUID();
+
+        assertThrows(ApiException.class, () -> flights.run("tab", k -> client.createChallenge(userId, k)));
+        flights.run("tab", k -> client.createChallenge(userId, k));
+
+        assertEquals(2, stub.createRequests());
+        assertEquals(1, stub.created());
+    }
+
+    @Test
+    void resetStartsANewLogicalCreate() throws Exception {
+        SingleFlight<CreateChallengeResponseDto> flights = new SingleFlight<>();
+        UUID userId = UUID.randomUUID();
+
+        UUID first = flights.run("tab", k -> client.createChallenge(userId, k))
+                .getChallengeId();
+        flights.reset("tab");
+        UUID second = flights.run("tab", k -> client.createChallenge(userId, k))
+                .getChallengeId();
+
+        assertEquals(2, stub.created());
+        assertEquals(false, first.equals(second));
+    }
+}
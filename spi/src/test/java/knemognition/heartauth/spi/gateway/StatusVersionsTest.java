@@ -0,0 +1,57 @@
+package knemognition.heartauth.spi.gateway;
+
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatusVersionsTest {
+
+    @Test
+    void realmsOnDifferentOrchestratorsDoNotShareAVersion() throws Exception {
+        UUID id = UUID.randomUUID();
+        try (OrchestratorStub first = new OrchestratorStub(); OrchestratorStub second = new OrchestratorStub()) {
+            first.pollAfterMs(500);
+            second.pollAfterMs(2_000);
+
+            assertEquals(500, first.client()
+                    .getChallengeStatus(id)
+                    .getPollAfterMs());
+            // Same path, id and ETag: a shared entry would answer the second from the first's 304.
+            assertEquals(2_000, second.client()
+                    .getChallengeStatus(id)
+                    .getPollAfterMs());
+            assertEquals(2_000, second.client()
+                    .getChallengeStatus(id)
+                    .getPollAfterMs());
+        }
+    }
+
+    @Test
+    void fullTableEvictsEntriesNotTheWholeTable() {
+        String prefix = "http://versions-" + UUID.randomUUID() + "/status/";
+        StatusResponseDto pending = StatusResponseDto.builder()
+                .status(FlowStatusDto.PENDING)
+                .build();
+        String polled = prefix + "polled";
+        StatusVersions.put(polled, "\"v1\"", pending);
+
+        for (int i = 0; i < 200_000; i++) {
+            StatusVersions.put(prefix + i, "\"v1\"", pending);
+            if (i % 1_000 == 0) {
+                assertNotNull(StatusVersions.get(polled), "entry in use evicted after " + i + " puts");
+            }
+        }
+
+        assertNotNull(StatusVersions.get(polled));
+        assertNotNull(StatusVersions.get(prefix + 199_999));
+        int size = StatusVersions.size();
+        assertTrue(size <= 16 * 4_096, () -> size + " entries");
+        assertTrue(size >= 16 * 4_096 * 3 / 4, () -> size + " entries: evicted more than needed");
+    }
+}
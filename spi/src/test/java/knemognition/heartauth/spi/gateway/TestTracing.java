@@ -0,0 +1,66 @@
+package knemognition.heartauth.spi.gateway;
+
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.tracing.TracingProvider;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Points {@link HaTracing} at an SDK tracer that exports to memory, through the same Keycloak tracing
+ * provider lookup a node does at startup. {@code HaTracing} initializes once per JVM, so every test shares
+ * one exporter and should {@link #reset()} it first.
+ */
+public final class TestTracing {
+
+    private static final InMemorySpanExporter EXPORTER = InMemorySpanExporter.create();
+    private static final SdkTracerProvider PROVIDER = SdkTracerProvider.builder()
+            .addSpanProcessor(SimpleSpanProcessor.create(EXPORTER))
+            .build();
+
+    static {
+        TracingProvider tracing = mock(TracingProvider.class);
+        when(tracing.getTracer(anyString())).thenAnswer(inv -> PROVIDER.get(inv.getArgument(0)));
+        KeycloakSession session = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+        doReturn(tracing).when(session)
+                .getProvider(TracingProvider.class);
+        KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+        when(factory.create()).thenReturn(session);
+        HaTracing.init(factory);
+    }
+
+    private TestTracing() {
+    }
+
+    /**
+     * Forgets spans exported so far, e.g. by an earlier test.
+     */
+    public static void reset() {
+        EXPORTER.reset();
+    }
+
+    /**
+     * Ended spans, in the order they ended.
+     */
+    public static List<SpanData> spans() {
+        return EXPORTER.getFinishedSpanItems();
+    }
+
+    public static SpanData span(String name) {
+        return spans().stream()
+                .filter(s -> s.getName()
+                        .equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no span " + name + " in " + spans()));
+    }
+}
@@ -0,0 +1,139 @@
+package knemognition.heartauth.spi.registerDevice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.ws.rs.core.StreamingOutput;
+import knemognition.heartauth.spi.gateway.OrchJson;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.UserModel;
+import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkPairingResourceTest {
+
+    private OrchestratorStub stub;
+    private BulkPairingResource resource;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new OrchestratorStub();
+        KeycloakSessionFactory factory = usersById();
+        KeycloakSession session = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+        when(session.getKeycloakSessionFactory()).thenReturn(factory);
+        resource = new BulkPairingResource(session, stub.realm(), mock(AdminPermissionEvaluator.class,
+                RETURNS_DEEP_STUBS));
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void createsOnePairingPerUserWithTheRequestedTtl() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream(4, 240, users(5)).write(out);
+
+        List<JsonNode> lines = out.toString(StandardCharsets.UTF_8)
+                .lines()
+                .map(BulkPairingResourceTest::parse)
+                .toList();
+        assertEquals(5, lines.size());
+        lines.forEach(line -> assertTrue(line.hasNonNull("jti"), line::toString));
+        assertEquals(240, stub.lastCreateBody()
+                .get("ttlSeconds")
+                .asInt());
+    }
+
+    @Test
+    void ttlOutsideTheContractFailsEveryLine() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream(2, 86_400, users(3)).write(out);
+
+        List<JsonNode> lines = out.toString(StandardCharsets.UTF_8)
+                .lines()
+                .map(BulkPairingResourceTest::parse)
+                .toList();
+        assertEquals(3, lines.size());
+        lines.forEach(line -> assertTrue(line.hasNonNull("error") && !line.hasNonNull("jti"), line::toString));
+        assertEquals(0, stub.created());
+    }
+
+    @Test
+    void stopsCreatingOnceTheAdminDisconnects() {
+        stub.createDelayMs(20);
+        OutputStream gone = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> stream(2, 240, users(500)).write(gone));
+        assertTrue(stub.createRequests() < 20, () -> stub.createRequests() + " creates after disconnect");
+    }
+
+    private StreamingOutput stream(int parallelism, int ttlSeconds, InputStream body) {
+        return resource.pairingStream(parallelism, ttlSeconds, body);
+    }
+
+    private static InputStream users(int n) {
+        String ids = IntStream.range(0, n)
+                .mapToObj(i -> UUID.randomUUID()
+                        .toString())
+                .collect(Collectors.joining("\n"));
+        return new ByteArrayInputStream(ids.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Every user id looked up exists, with a username derived from it.
+     */
+    private static KeycloakSessionFactory usersById() {
+        KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+        when(factory.create()).thenAnswer(inv -> {
+            KeycloakSession s = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+            when(s.users()
+                    .getUserById(any(), anyString())).thenAnswer(lookup -> {
+                String id = lookup.getArgument(1);
+                UserModel user = mock(UserModel.class);
+                when(user.getId()).thenReturn(id);
+                when(user.getUsername()).thenReturn("user-" + id);
+                return user;
+            });
+            return s;
+        });
+        return factory;
+    }
+
+    private static JsonNode parse(String line) {
+        try {
+            return OrchJson.MAPPER.readTree(line);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
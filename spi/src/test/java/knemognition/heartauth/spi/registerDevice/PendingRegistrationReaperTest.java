@@ -0,0 +1,103 @@
+package knemognition.heartauth.spi.registerDevice;
+
+import knemognition.heartauth.spi.config.HaAttributes;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PendingRegistrationReaperTest {
+
+    private static final long HOUR = Duration.ofHours(1)
+            .toMillis();
+
+    private KeycloakSession session;
+    private RealmModel realm;
+
+    @BeforeEach
+    void setUp() {
+        session = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+        realm = mock(RealmModel.class);
+        when(realm.getAttribute(HaAttributes.PENDING_REGISTRATION_MAX_AGE_HOURS)).thenReturn("1");
+        when(session.realms()
+                .getRealm("realm")).thenReturn(realm);
+        when(session.users()
+                .removeUser(eq(realm), any())).thenReturn(true);
+    }
+
+    @Test
+    void oldAccountThatOnlyJustStartedRegistrationIsKept() {
+        long now = System.currentTimeMillis();
+        UserModel user = user(now - 30 * 24 * HOUR, now - 10_000);
+
+        PendingRegistrationReaper.Batch batch = reap(user);
+
+        assertEquals(0, batch.deleted());
+        verify(session.users(), never()).removeUser(realm, user);
+    }
+
+    @Test
+    void pendingPastTheMaxAgeIsRemoved() {
+        long now = System.currentTimeMillis();
+        UserModel user = user(now - 3 * HOUR, now - 2 * HOUR);
+
+        PendingRegistrationReaper.Batch batch = reap(user);
+
+        assertEquals(1, batch.deleted());
+        verify(session.users()).removeUser(realm, user);
+    }
+
+    @Test
+    void legacyMarkWithoutTimestampStartsItsWindowInsteadOfBeingRemoved() {
+        UserModel user = user(System.currentTimeMillis() - 30 * 24 * HOUR, null);
+
+        PendingRegistrationReaper.Batch batch = reap(user);
+
+        assertEquals(0, batch.deleted());
+        verify(session.users(), never()).removeUser(realm, user);
+        assertNotNull(RegisterDeviceRequiredAction.pendingSince(user));
+    }
+
+    private PendingRegistrationReaper.Batch reap(UserModel user) {
+        when(session.users()
+                .searchForUserStream(eq(realm), anyMap(), anyInt(), anyInt())).thenReturn(Stream.of(user));
+        return PendingRegistrationReaper.reapBatch(session, "realm", 0, 10);
+    }
+
+    private static UserModel user(long createdAt, Long pendingSince) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(RegisterDeviceRequiredAction.REG_PENDING, "true");
+        if (pendingSince != null) {
+            attributes.put(RegisterDeviceRequiredAction.REG_PENDING_SINCE, Long.toString(pendingSince));
+        }
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn(UUID.randomUUID()
+                .toString());
+        when(user.getCreatedTimestamp()).thenReturn(createdAt);
+        when(user.getFirstAttribute(anyString())).thenAnswer(inv -> attributes.get(inv.<String>getArgument(0)));
+        doAnswer(inv -> attributes.put(inv.getArgument(0), inv.getArgument(1))).when(user)
+                .setSingleAttribute(anyString(), anyString());
+        return user;
+    }
+}
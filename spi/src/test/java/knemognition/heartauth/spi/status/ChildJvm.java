@@ -0,0 +1,58 @@
+package knemognition.heartauth.spi.status;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a measurement's {@code main} in a child JVM on the test classpath, for settings fixed per JVM such as
+ * {@code -Dha.virtual.threads}. The main prints one {@code RESULT} line; the rest of its output is kept (up to
+ * {@value #KEPT_LINES} lines) for failure messages.
+ */
+final class ChildJvm {
+
+    private static final int KEPT_LINES = 80;
+
+    private ChildJvm() {
+    }
+
+    record Run(String result, List<String> output) {
+
+        String outputText() {
+            return String.join("\n", output);
+        }
+    }
+
+    static Run run(Class<?> main, List<String> jvmArgs, String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.addAll(jvmArgs);
+        command.add(main.getName());
+        command.addAll(List.of(args));
+        Process p = new ProcessBuilder(command).redirectErrorStream(true)
+                .start();
+        List<String> output = new ArrayList<>();
+        String result = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = out.readLine()) != null; ) {
+                if (line.startsWith("RESULT ")) {
+                    result = line;
+                } else if (output.size() < KEPT_LINES) {
+                    output.add(line);
+                }
+            }
+        }
+        assertTrue(p.waitFor(2, TimeUnit.MINUTES), () -> main.getSimpleName() + " did not finish");
+        assertNotNull(result, () -> String.join("\n", output));
+        return new Run(result, output);
+    }
+}
@@ -0,0 +1,82 @@
+package knemognition.heartauth.spi.status;
+
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class StatusWatchExpiryTest {
+
+    private OrchestratorStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // In virtual-thread mode start() returns before the watch has run.
+        assumeFalse(HaExecutors.virtualThreads());
+        stub = new OrchestratorStub();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void pendingFlowEndsWithExpiredAtItsDeadlineWithoutAnotherPoll() {
+        UUID id = UUID.randomUUID();
+        TestSink sink = new TestSink();
+        long exp = System.currentTimeMillis() / 1000 + 2;
+        String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, "root", "tab", id.toString());
+        StatusWatchRegistry.register(key, sink);
+        StatusWatch watch = new StatusWatch(StatusWatchRegistry.TYPE_ECG, key, id.toString(), sink, new TestSse(),
+                stub.client(), StatusWatch.ECG_POLL, true, TestSessions.factory(), exp, () -> true);
+
+        watch.start();
+
+        assertEquals(FlowStatusDto.EXPIRED, sink.lastStatus());
+        assertTrue(System.currentTimeMillis() >= exp * 1000, "expired before the deadline");
+        assertEquals(sink.sends() - 1, stub.statusRequests(), "the EXPIRED event must not come from a poll");
+        assertEquals(1, sink.closeCalls());
+    }
+
+    @Test
+    void interruptedWatchFinishesAndCancelsItsPendingStep() throws Exception {
+        stub.pollAfterMs(30_000);
+        UUID id = UUID.randomUUID();
+        TestSink sink = new TestSink();
+        long exp = System.currentTimeMillis() / 1000 + 120;
+        String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, "root", "tab", id.toString());
+        StatusWatchRegistry.register(key, sink);
+        StatusWatch watch = new StatusWatch(StatusWatchRegistry.TYPE_ECG, key, id.toString(), sink, new TestSse(),
+                stub.client(), StatusWatch.ECG_POLL, true, TestSessions.factory(), exp, () -> true);
+
+        Thread request = new Thread(watch::start);
+        request.start();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (sink.sends() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        // Parked on the step after the first poll, 30 s out.
+        Thread.sleep(200);
+        request.interrupt();
+        request.join(5_000);
+
+        assertFalse(request.isAlive(), "watch did not stop on interrupt");
+        assertEquals(1, sink.sends());
+        assertEquals(1, sink.closeCalls());
+        WatchTimer.Timeout pending = watch.pendingStep();
+        assertFalse(pending.fired());
+        assertFalse(pending.cancel(), "pending step should already be cancelled");
+    }
+}
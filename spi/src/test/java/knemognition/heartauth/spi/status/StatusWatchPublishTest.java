@@ -0,0 +1,100 @@
+package knemognition.heartauth.spi.status;
+
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.SseEventSink;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class StatusWatchPublishTest {
+
+    private final Map<String, Map<String, String>> store = new ConcurrentHashMap<>();
+    private OrchestratorStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // In virtual-thread mode start() returns before the watch has run.
+        assumeFalse(HaExecutors.virtualThreads());
+        stub = new OrchestratorStub();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void terminalStatusIsPublishedBeforeTheBrowserIsTold() {
+        UUID id = UUID.randomUUID();
+        stub.status(id, FlowStatusDto.APPROVED);
+        RecordingSink sink = new RecordingSink();
+
+        watch(id, sink).start();
+
+        assertEquals(FlowStatusDto.APPROVED, sink.lastStatus);
+        assertTrue(sink.publishedWhenSent, "snapshot must exist when the browser gets the outcome");
+        assertEquals("APPROVED", StatusSnapshotStore.lookup(TestSessions.factory(store)
+                .create(), StatusWatchRegistry.TYPE_ECG, id.toString())
+                .getStatus()
+                .getValue());
+    }
+
+    @Test
+    void notFoundIsNotPublishedClusterWide() {
+        UUID id = UUID.randomUUID();
+        stub.status(id, FlowStatusDto.NOT_FOUND);
+        RecordingSink sink = new RecordingSink();
+
+        watch(id, sink).start();
+
+        assertEquals(FlowStatusDto.NOT_FOUND, sink.lastStatus);
+        assertTrue(store.isEmpty(), store::toString);
+    }
+
+    private StatusWatch watch(UUID id, SseEventSink sink) {
+        String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, "root", "tab", id.toString());
+        StatusWatchRegistry.register(key, sink);
+        return new StatusWatch(StatusWatchRegistry.TYPE_ECG, key, id.toString(), sink, new TestSse(),
+                stub.client(), StatusWatch.ECG_POLL, true, TestSessions.factory(store),
+                System.currentTimeMillis() / 1000 + 120, () -> true);
+    }
+
+    private final class RecordingSink implements SseEventSink {
+        volatile boolean closed;
+        volatile FlowStatusDto lastStatus;
+        volatile boolean publishedWhenSent;
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public CompletionStage<?> send(OutboundSseEvent event) {
+            lastStatus = ((StatusResponseDto) event.getData()).getStatus();
+            publishedWhenSent = !store.isEmpty();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package knemognition.heartauth.spi.status;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Races the registry the way a node does: the SSE thread registering and later finishing its watch, the
+ * authenticator retiring the flow ({@code close}) and the browser's beacon ({@code disconnect}), all on the
+ * same key at once. Each round starts its threads on a barrier so the calls overlap as much as possible.
+ */
+class StatusWatchRegistryStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2_000;
+
+    private final String prefix = "stress-" + UUID.randomUUID();
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void everySinkIsClosedExactlyOnceAndNothingLeaks() throws Exception {
+        List<TestSink> sinks = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            String root = prefix + "-" + round;
+            String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, root, "tab", "id");
+            CyclicBarrier start = new CyclicBarrier(THREADS);
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int role = t;
+                TestSink sink = role >= 2 ? new TestSink() : null;
+                if (sink != null) {
+                    sinks.add(sink);
+                }
+                tasks.add(pool.submit(() -> {
+                    start.await();
+                    switch (role) {
+                        case 0 -> StatusWatchRegistry.close(StatusWatchRegistry.TYPE_ECG, root, "tab", "id");
+                        case 1 -> StatusWatchRegistry.disconnect(StatusWatchRegistry.TYPE_ECG, root, "tab", "id");
+                        default -> watch(key, sink);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        for (int i = 0; i < sinks.size(); i++) {
+            assertEquals(1, sinks.get(i)
+                    .closeCalls(), "sink " + i);
+        }
+        assertEquals(Set.of(), ours(StatusWatchRegistry.openKeys()));
+        assertEquals(ROUNDS, ours(StatusWatchRegistry.closeMarkers()).size());
+        StatusWatchRegistry.purgeExpiredMarkers(System.nanoTime() + StatusWatchRegistry.CLOSE_MARKER_TTL_NANOS + 1);
+        assertEquals(Set.of(), ours(StatusWatchRegistry.closeMarkers()));
+    }
+
+    @Test
+    void closeThatOvertakesRegisterIsNeverLost() throws Exception {
+        for (int round = 0; round < ROUNDS * 5; round++) {
+            String root = prefix + "-" + round;
+            String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, root, "tab", "id");
+            TestSink sink = new TestSink();
+            CyclicBarrier start = new CyclicBarrier(2);
+            Future<?> close = pool.submit(() -> {
+                start.await();
+                StatusWatchRegistry.close(StatusWatchRegistry.TYPE_ECG, root, "tab", "id");
+                return null;
+            });
+            Future<Boolean> register = pool.submit(() -> {
+                start.await();
+                return StatusWatchRegistry.register(key, sink);
+            });
+            close.get(10, TimeUnit.SECONDS);
+            boolean registered = register.get(10, TimeUnit.SECONDS);
+
+            // Either register saw the close, or the close saw (and closed) the sink: never an open watch.
+            if (registered) {
+                assertEquals(1, sink.closeCalls(), "round " + round);
+            } else {
+                assertEquals(0, sink.closeCalls(), "round " + round);
+            }
+            assertFalse(StatusWatchRegistry.openKeys()
+                    .contains(key), "round " + round);
+            // close() is for an id the flow has moved away from: a late stream for it must not reopen.
+            assertFalse(StatusWatchRegistry.register(key, new TestSink()), "rotated-away id registered again");
+        }
+    }
+
+    @Test
+    void beaconDoesNotRetireTheFlow() {
+        String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, prefix, "tab", "id");
+        TestSink before = new TestSink();
+        assertTrue(StatusWatchRegistry.register(key, before));
+
+        StatusWatchRegistry.disconnect(StatusWatchRegistry.TYPE_ECG, prefix, "tab", "id");
+        TestSink reloaded = new TestSink();
+
+        assertEquals(1, before.closeCalls());
+        assertTrue(StatusWatchRegistry.register(key, reloaded), "a reload must be able to reopen the watch");
+        assertTrue(StatusWatchRegistry.unregister(key, reloaded));
+        assertFalse(StatusWatchRegistry.openKeys()
+                .contains(key));
+    }
+
+    /**
+     * What the resource and {@link StatusWatch} do with one stream: register, poll until closed or the flow
+     * ends on its own, then close the sink only if it was still theirs to close.
+     */
+    private static void watch(String key, TestSink sink) {
+        if (!StatusWatchRegistry.register(key, sink)) {
+            StatusWatchResource.close(sink);
+            return;
+        }
+        int polls = ThreadLocalRandom.current()
+                .nextInt(50);
+        for (int i = 0; i < polls && !sink.isClosed() && !StatusWatchRegistry.isCloseRequested(key); i++) {
+            Thread.onSpinWait();
+        }
+        if (StatusWatchRegistry.unregister(key, sink)) {
+            StatusWatchResource.close(sink);
+        }
+    }
+
+    private Set<String> ours(Set<String> keys) {
+        return keys.stream()
+                .filter(k -> k.contains(prefix))
+                .collect(Collectors.toSet());
+    }
+}
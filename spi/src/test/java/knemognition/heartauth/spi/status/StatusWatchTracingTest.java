@@ -0,0 +1,78 @@
+package knemognition.heartauth.spi.status;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.HaTracing;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import knemognition.heartauth.spi.gateway.TestTracing;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class StatusWatchTracingTest {
+
+    private OrchestratorStub stub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // In virtual-thread mode start() returns before the watch has run.
+        assumeFalse(HaExecutors.virtualThreads());
+        stub = new OrchestratorStub();
+        TestTracing.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void watchIsOneSpanUnderItsRequestAndParentOfItsPolls() {
+        UUID id = UUID.randomUUID();
+        stub.status(id, FlowStatusDto.APPROVED);
+        TestSink sink = new TestSink();
+        String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, "root", "tab", id.toString());
+        StatusWatchRegistry.register(key, sink);
+        StatusWatch watch = new StatusWatch(StatusWatchRegistry.TYPE_ECG, key, id.toString(), sink, new TestSse(),
+                stub.client(), StatusWatch.ECG_POLL, true, TestSessions.factory(),
+                System.currentTimeMillis() / 1000 + 120, () -> true);
+
+        Span request = HaTracing.tracer()
+                .spanBuilder("GET watch/ecg")
+                .startSpan();
+        try (Scope ignored = request.makeCurrent()) {
+            watch.start();
+        } finally {
+            request.end();
+        }
+
+        SpanData watchSpan = TestTracing.span("status-watch ecg");
+        SpanData poll = TestTracing.span("orchestrator getChallengeStatus");
+        assertEquals(request.getSpanContext()
+                .getSpanId(), watchSpan.getParentSpanId());
+        assertEquals(id.toString(), watchSpan.getAttributes()
+                .get(AttributeKey.stringKey("hauth.entity.id")));
+        assertEquals(1L, watchSpan.getAttributes()
+                .get(AttributeKey.longKey("hauth.watch.polls")));
+        assertTrue(watchSpan.getEvents()
+                .stream()
+                .map(EventData::getName)
+                .anyMatch("status APPROVED"::equals), watchSpan::toString);
+        assertEquals(watchSpan.getSpanId(), poll.getParentSpanId());
+        assertEquals(watchSpan.getTraceId(), poll.getTraceId());
+        assertEquals("00-" + poll.getTraceId() + "-" + poll.getSpanId() + "-01", stub.lastHeader("traceparent"));
+    }
+}
@@ -0,0 +1,50 @@
+package knemognition.heartauth.spi.status;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.SingleUseObjectProvider;
+
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Session factory for code that opens its own transaction ({@code KeycloakModelUtils.runJobInTransaction}),
+ * e.g. a watch publishing its outcome; every store call is a no-op.
+ */
+final class TestSessions {
+
+    private TestSessions() {
+    }
+
+    static KeycloakSessionFactory factory() {
+        KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+        when(factory.create()).thenAnswer(inv -> mock(KeycloakSession.class, RETURNS_DEEP_STUBS));
+        return factory;
+    }
+
+    /**
+     * Like {@link #factory()}, but the single-use object store of every session writes to and reads from
+     * {@code store}.
+     */
+    static KeycloakSessionFactory factory(Map<String, Map<String, String>> store) {
+        SingleUseObjectProvider singleUse = mock(SingleUseObjectProvider.class);
+        doAnswer(inv -> store.put(inv.getArgument(0), Map.copyOf(inv.<Map<String, String>>getArgument(2))))
+                .when(singleUse)
+                .put(anyString(), anyLong(), anyMap());
+        when(singleUse.get(anyString())).thenAnswer(inv -> store.get(inv.<String>getArgument(0)));
+        KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+        when(factory.create()).thenAnswer(inv -> {
+            KeycloakSession session = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+            when(session.singleUseObjects()).thenReturn(singleUse);
+            return session;
+        });
+        return factory;
+    }
+}
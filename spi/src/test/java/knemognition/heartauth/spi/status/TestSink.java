@@ -0,0 +1,56 @@
+package knemognition.heartauth.spi.status;
+
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.SseEventSink;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.orchestrator.model.StatusResponseDto;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link SseEventSink} that remembers the last status sent and counts closes; thread-safe.
+ */
+final class TestSink implements SseEventSink {
+
+    private final AtomicInteger closeCalls = new AtomicInteger();
+    private final AtomicInteger sends = new AtomicInteger();
+    private volatile boolean closed;
+    private volatile FlowStatusDto lastStatus;
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public CompletionStage<?> send(OutboundSseEvent event) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("closed"));
+        }
+        sends.incrementAndGet();
+        if (event.getData() instanceof StatusResponseDto status) {
+            lastStatus = status.getStatus();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() {
+        closeCalls.incrementAndGet();
+        closed = true;
+    }
+
+    int closeCalls() {
+        return closeCalls.get();
+    }
+
+    int sends() {
+        return sends.get();
+    }
+
+    FlowStatusDto lastStatus() {
+        return lastStatus;
+    }
+}
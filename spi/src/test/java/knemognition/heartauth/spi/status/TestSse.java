@@ -0,0 +1,118 @@
+package knemognition.heartauth.spi.status;
+
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseBroadcaster;
+
+import java.lang.reflect.Type;
+
+/**
+ * Minimal {@link Sse} for driving watches outside a JAX-RS runtime; events carry their data and nothing else.
+ */
+final class TestSse implements Sse {
+
+    @Override
+    public OutboundSseEvent.Builder newEventBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public SseBroadcaster newBroadcaster() {
+        throw new UnsupportedOperationException();
+    }
+
+    record Event(Object getData, long getReconnectDelay) implements OutboundSseEvent {
+        @Override
+        public Class<?> getType() {
+            return getData != null ? getData.getClass() : Object.class;
+        }
+
+        @Override
+        public Type getGenericType() {
+            return getType();
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return MediaType.APPLICATION_JSON_TYPE;
+        }
+
+        @Override
+        public String getId() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return null;
+        }
+
+        @Override
+        public String getComment() {
+            return null;
+        }
+
+        @Override
+        public boolean isReconnectDelaySet() {
+            return getReconnectDelay != RECONNECT_NOT_SET;
+        }
+    }
+
+    private static final class Builder implements OutboundSseEvent.Builder {
+        private Object data;
+        private long reconnectDelay = OutboundSseEvent.RECONNECT_NOT_SET;
+
+        @Override
+        public OutboundSseEvent.Builder id(String id) {
+            return this;
+        }
+
+        @Override
+        public OutboundSseEvent.Builder name(String name) {
+            return this;
+        }
+
+        @Override
+        public OutboundSseEvent.Builder reconnectDelay(long milliseconds) {
+            reconnectDelay = milliseconds;
+            return this;
+        }
+
+        @Override
+        public OutboundSseEvent.Builder mediaType(MediaType mediaType) {
+            return this;
+        }
+
+        @Override
+        public OutboundSseEvent.Builder comment(String comment) {
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public OutboundSseEvent.Builder data(Class type, Object data) {
+            this.data = data;
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public OutboundSseEvent.Builder data(GenericType type, Object data) {
+            this.data = data;
+            return this;
+        }
+
+        @Override
+        public OutboundSseEvent.Builder data(Object data) {
+            this.data = data;
+            return this;
+        }
+
+        @Override
+        public OutboundSseEvent build() {
+            return new Event(data, reconnectDelay);
+        }
+    }
+}
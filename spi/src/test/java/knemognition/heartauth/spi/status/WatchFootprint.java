@@ -0,0 +1,189 @@
+package knemognition.heartauth.spi.status;
+
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.util.Multiset;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Memory held by open status watches between polls, in virtual-thread mode (a platform-mode watch adds its
+ * request thread's stack on top). Opens N watches the way {@link StatusWatchResource} does (registry entry,
+ * re-validation closure, watch, pending timer step), lets each one poll once and measures two ways:
+ * <ul>
+ *     <li>JOL: the object graph reachable from the watches, the registry and the timer, minus what every
+ *     watch shares (orchestrator client, session factory, tracer) and the sinks, per watch and per class;</li>
+ *     <li>heap diff: used heap after GC with the watches open minus before, per watch, minus the sink.</li>
+ * </ul>
+ * The SSE sink belongs to the JAX-RS runtime and a test double stands in for it, so it is reported apart and
+ * left out of both numbers. Prints one {@code RESULT} line; {@link WatchFootprintTest} checks it against the
+ * budget. Must run with {@code -Dha.virtual.threads=true}.
+ */
+public final class WatchFootprint {
+
+    private static final TestSse SSE = new TestSse();
+    private static final int WARMUP = 200;
+
+    private WatchFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int watches = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        Result result = run(watches);
+        System.out.println(result.table());
+        System.out.println(result.line());
+        System.exit(0);
+    }
+
+    static Result run(int watches) throws Exception {
+        if (!HaExecutors.virtualThreads()) {
+            throw new IllegalStateException("run with -Dha.virtual.threads=true");
+        }
+        try (OrchestratorStub stub = new OrchestratorStub()) {
+            OrchClient client = stub.client();
+            KeycloakSessionFactory factory = TestSessions.factory();
+            long exp = System.currentTimeMillis() / 1000 + 600;
+
+            // Timer worker, executors and the client's first calls are paid once per node, not per watch;
+            // the warm-up watches are closed and have finished before anything is measured.
+            stub.pollAfterMs(500);
+            List<StatusWatch> warm = new ArrayList<>();
+            List<TestSink> warmSinks = new ArrayList<>();
+            open(WARMUP, "warm-", client, factory, exp, warm, warmSinks);
+            awaitFirstPoll(warmSinks);
+            warmSinks.forEach(TestSink::close);
+            Thread.sleep(1_500);
+
+            // Every measured watch polls once, then waits out the longest hint: nothing moves while measured.
+            stub.pollAfterMs(30_000);
+            Object[] shared = {client, factory, SSE, StatusWatch.ECG_POLL};
+            long heapBefore = usedHeapAfterGc();
+            List<StatusWatch> open = new ArrayList<>(watches);
+            List<TestSink> sinks = new ArrayList<>(watches);
+            open(watches, "root-", client, factory, exp, open, sinks);
+            awaitFirstPoll(sinks);
+            long heapAfter = usedHeapAfterGc();
+
+            GraphLayout base = GraphLayout.parseInstance(shared, sinks.toArray());
+            GraphLayout held = GraphLayout.parseInstance(shared, sinks.toArray(), open.toArray(), registry(), timer());
+            long sinkBytes = GraphLayout.parseInstance(sinks.toArray())
+                    .totalSize() / watches;
+
+            Map<String, Long> perClass = new HashMap<>();
+            Multiset<Class<?>> heldSizes = held.getClassSizes();
+            Multiset<Class<?>> baseSizes = base.getClassSizes();
+            for (Class<?> c : heldSizes.keys()) {
+                long bytes = heldSizes.count(c) - baseSizes.count(c);
+                if (bytes > 0) {
+                    perClass.merge(c.getName(), bytes / watches, Long::sum);
+                }
+            }
+            long jolBytes = (held.totalSize() - base.totalSize()) / watches;
+            long heapBytes = (heapAfter - heapBefore) / watches - sinkBytes;
+            return new Result(watches, jolBytes, heapBytes, sinkBytes, perClass);
+        }
+    }
+
+    private static void open(int n,
+                             String rootPrefix,
+                             OrchClient client,
+                             KeycloakSessionFactory factory,
+                             long exp,
+                             List<StatusWatch> watches,
+                             List<TestSink> sinks) {
+        for (int i = 0; i < n; i++) {
+            String rootId = rootPrefix + UUID.randomUUID();
+            String tabId = "tab" + i;
+            String entityId = UUID.randomUUID()
+                    .toString();
+            TestSink sink = new TestSink();
+            String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, rootId, tabId, entityId);
+            StatusWatchRegistry.register(key, sink);
+            // Same captures as the resource's virtual-mode re-validation closure.
+            String realmId = "stub-realm";
+            BooleanSupplier stillActive = () -> factory != null && realmId != null && rootId != null
+                    && tabId != null && entityId != null;
+            StatusWatch watch = new StatusWatch(StatusWatchRegistry.TYPE_ECG, key, entityId, sink, SSE,
+                    client, StatusWatch.ECG_POLL, true, factory, exp, stillActive);
+            watch.start();
+            watches.add(watch);
+            sinks.add(sink);
+        }
+    }
+
+    private static void awaitFirstPoll(List<TestSink> sinks) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!sinks.stream()
+                .allMatch(s -> s.sends() > 0)) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("watches did not poll within 60s");
+            }
+            Thread.sleep(50);
+        }
+        // The last step may still be rescheduling itself.
+        Thread.sleep(500);
+    }
+
+    private static Object registry() throws ReflectiveOperationException {
+        return staticField(StatusWatchRegistry.class, "SINKS");
+    }
+
+    private static Object[] timer() throws ReflectiveOperationException {
+        return new Object[]{staticField(WatchTimer.class, "WHEEL"), staticField(WatchTimer.class, "PENDING")};
+    }
+
+    private static Object staticField(Class<?> owner, String name) throws ReflectiveOperationException {
+        Field f = owner.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(null);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    record Result(int watches, long jolBytesPerWatch, long heapBytesPerWatch, long sinkBytesPerWatch,
+                  Map<String, Long> bytesPerWatchByClass) {
+
+        String line() {
+            return "RESULT watches=" + watches + " jolBytesPerWatch=" + jolBytesPerWatch
+                    + " heapBytesPerWatch=" + heapBytesPerWatch + " sinkBytesPerWatch=" + sinkBytesPerWatch;
+        }
+
+        String table() {
+            StringBuilder out = new StringBuilder("bytes/watch  class\n");
+            bytesPerWatchByClass.entrySet()
+                    .stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                    .forEach(e -> out.append(String.format("%11d  %s%n", e.getValue(), e.getKey())));
+            return out.toString();
+        }
+
+        static Result parse(String line) {
+            Map<String, String> f = new HashMap<>();
+            for (String part : line.substring("RESULT ".length())
+                    .split(" ")) {
+                int eq = part.indexOf('=');
+                f.put(part.substring(0, eq), part.substring(eq + 1));
+            }
+            return new Result(Integer.parseInt(f.get("watches")), Long.parseLong(f.get("jolBytesPerWatch")),
+                    Long.parseLong(f.get("heapBytesPerWatch")), Long.parseLong(f.get("sinkBytesPerWatch")), Map.of());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package knemognition.heartauth.spi.status;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Holds the memory an open watch retains to a budget, so pod sizing by concurrent logins stays valid. The
+ * budgets leave some headroom over what {@link WatchFootprint} measured when they were set (about 800 bytes
+ * of object graph, 1.2 KB of heap); raise them only together with the per-watch
+ * sizing note above {@code resources} in {@code helm/values.yaml}.
+ */
+class WatchFootprintTest {
+
+    private static final int WATCHES = 2_000;
+    // Object graph per watch, excluding the container's SSE sink (JOL, exact).
+    private static final long JOL_BUDGET_BYTES = 960;
+    // Heap growth per watch after GC; noisier, so it only has to agree with the graph within reason.
+    private static final long HEAP_BUDGET_BYTES = 1_600;
+
+    @Test
+    void openWatchStaysWithinItsMemoryBudget() throws Exception {
+        // JOL needs field offsets of lambda classes, which plain Unsafe refuses for hidden classes.
+        ChildJvm.Run run = ChildJvm.run(WatchFootprint.class,
+                List.of("-Dha.virtual.threads=true", "-Djol.magicFieldOffset=true", "-Djdk.attach.allowAttachSelf=true"),
+                Integer.toString(WATCHES));
+        WatchFootprint.Result result = WatchFootprint.Result.parse(run.result());
+        // On failure the per-class table shows what grew.
+        Supplier<String> report = () -> result.line() + "\n" + run.outputText();
+
+        assertTrue(result.jolBytesPerWatch() > 0, report);
+        assertTrue(result.jolBytesPerWatch() <= JOL_BUDGET_BYTES, report);
+        assertTrue(result.heapBytesPerWatch() <= HEAP_BUDGET_BYTES, report);
+    }
+}
@@ -0,0 +1,134 @@
+package knemognition.heartauth.spi.status;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import knemognition.heartauth.orchestrator.model.FlowStatusDto;
+import knemognition.heartauth.spi.gateway.HaExecutors;
+import knemognition.heartauth.spi.gateway.OrchClient;
+import knemognition.heartauth.spi.gateway.OrchestratorStub;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds N concurrent ECG status watches against a local orchestrator stub, in whichever thread mode this JVM
+ * runs ({@code -Dha.virtual.threads=true|false}), then approves every flow and waits for all watches to end.
+ * <p>
+ * Prints one {@code RESULT} line: peak live threads, heap retained while holding, upstream polls per second
+ * and the time to deliver every terminal event. {@link WatchModeComparisonTest} runs it once per mode.
+ * Run by hand with {@code <watches> <holdMs>} arguments for other sizes.
+ */
+public final class WatchModeBenchmark {
+
+    private static final TestSse SSE = new TestSse();
+
+    private WatchModeBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int watches = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        long holdMs = args.length > 1 ? Long.parseLong(args[1]) : 10_000;
+        System.out.println(run(watches, holdMs).line());
+        System.exit(0);
+    }
+
+    static Result run(int watches, long holdMs) throws Exception {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        Metrics.addRegistry(meters);
+        try (OrchestratorStub stub = new OrchestratorStub()) {
+            OrchClient client = stub.client();
+            KeycloakSessionFactory factory = TestSessions.factory();
+            long exp = System.currentTimeMillis() / 1000 + 600;
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+            List<UUID> ids = new ArrayList<>(watches);
+            List<TestSink> sinks = new ArrayList<>(watches);
+            long heapBefore = usedHeapAfterGc();
+            threads.resetPeakThreadCount();
+            int pollsBefore = stub.statusRequests();
+
+            for (int i = 0; i < watches; i++) {
+                UUID id = UUID.randomUUID();
+                TestSink sink = new TestSink();
+                String key = StatusWatchRegistry.buildKey(StatusWatchRegistry.TYPE_ECG, "root-" + i, "tab",
+                        id.toString());
+                StatusWatchRegistry.register(key, sink);
+                StatusWatch watch = new StatusWatch(StatusWatchRegistry.TYPE_ECG, key, id.toString(), sink, SSE,
+                        client, StatusWatch.ECG_POLL, true, factory, exp, () -> true);
+                ids.add(id);
+                sinks.add(sink);
+                if (HaExecutors.virtualThreads()) {
+                    watch.start();
+                } else {
+                    // What a Keycloak worker thread does for each open SSE request in platform mode.
+                    Thread.ofPlatform()
+                            .daemon()
+                            .start(watch::start);
+                }
+            }
+
+            Thread.sleep(holdMs);
+            int polls = stub.statusRequests() - pollsBefore;
+            double deferred = meters.counter("hauth.orch.deferred", "class", "background")
+                    .count();
+            long heldBytes = usedHeapAfterGc() - heapBefore;
+            int peakThreads = threads.getPeakThreadCount();
+
+            long drainStart = System.nanoTime();
+            ids.forEach(id -> stub.status(id, FlowStatusDto.APPROVED));
+            long deadline = drainStart + TimeUnit.SECONDS.toNanos(60);
+            while (!sinks.stream()
+                    .allMatch(TestSink::isClosed) && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            long drainMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drainStart);
+            long approved = sinks.stream()
+                    .filter(s -> s.lastStatus() == FlowStatusDto.APPROVED)
+                    .count();
+
+            return new Result(HaExecutors.virtualThreads() ? "virtual" : "platform", watches, peakThreads,
+                    heldBytes / watches, polls * 1000L / holdMs, (long) deferred * 1000L / holdMs, drainMs, approved);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    record Result(String mode, int watches, int peakThreads, long heapBytesPerWatch, long pollsPerSecond,
+                  long deferredPerSecond, long drainMs, long approved) {
+
+        String line() {
+            return "RESULT mode=" + mode + " watches=" + watches + " peakThreads=" + peakThreads
+                    + " heapBytesPerWatch=" + heapBytesPerWatch + " pollsPerSecond=" + pollsPerSecond
+                    + " deferredPerSecond=" + deferredPerSecond
+                    + " drainMs=" + drainMs + " approved=" + approved;
+        }
+
+        static Result parse(String line) {
+            Map<String, String> f = new HashMap<>();
+            for (String part : line.substring("RESULT ".length())
+                    .split(" ")) {
+                int eq = part.indexOf('=');
+                f.put(part.substring(0, eq), part.substring(eq + 1));
+            }
+            return new Result(f.get("mode"), Integer.parseInt(f.get("watches")),
+                    Integer.parseInt(f.get("peakThreads")), Long.parseLong(f.get("heapBytesPerWatch")),
+                    Long.parseLong(f.get("pollsPerSecond")), Long.parseLong(f.get("deferredPerSecond")),
+                    Long.parseLong(f.get("drainMs")),
+                    Long.parseLong(f.get("approved")));
+        }
+    }
+}
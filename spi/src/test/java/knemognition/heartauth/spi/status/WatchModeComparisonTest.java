@@ -0,0 +1,37 @@
+package knemognition.heartauth.spi.status;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Platform- versus virtual-thread mode under 5k concurrent watches. The mode is fixed per JVM, so each one
+ * runs {@link WatchModeBenchmark} in its own child process. A benchmark, not run by default:
+ * {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class WatchModeComparisonTest {
+
+    private static final int WATCHES = 5_000;
+    private static final long HOLD_MS = 3_000;
+
+    @Test
+    void virtualModeHoldsFiveThousandWatchesWithoutAThreadEach() throws Exception {
+        WatchModeBenchmark.Result platform = fork(false);
+        WatchModeBenchmark.Result virtual = fork(true);
+        assertEquals(WATCHES, platform.approved(), platform::line);
+        assertEquals(WATCHES, virtual.approved(), virtual::line);
+        assertTrue(platform.peakThreads() >= WATCHES, platform::line);
+        assertTrue(virtual.peakThreads() < WATCHES / 10, virtual::line);
+    }
+
+    private static WatchModeBenchmark.Result fork(boolean virtualThreads) throws Exception {
+        ChildJvm.Run run = ChildJvm.run(WatchModeBenchmark.class, List.of("-Dha.virtual.threads=" + virtualThreads),
+                Integer.toString(WATCHES), Long.toString(HOLD_MS));
+        return WatchModeBenchmark.Result.parse(run.result());
+    }
+}
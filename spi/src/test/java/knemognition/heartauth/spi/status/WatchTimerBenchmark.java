@@ -0,0 +1,115 @@
+package knemognition.heartauth.spi.status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules {@code timeouts} watch steps spread over a window, cancels half of them as closing watches
+ * would, and reports scheduling cost, how late the rest fire and the heap held while they wait. Run by
+ * {@link WatchTimerTest} at 100k; standalone, after {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     knemognition.heartauth.spi.status.WatchTimerBenchmark 100000 3000
+ * </pre>
+ */
+public final class WatchTimerBenchmark {
+
+    private static final long MIN_DELAY_MS = 1_000;
+
+    private WatchTimerBenchmark() {
+    }
+
+    record Result(int timeouts, int cancelled, int fired, int firedAfterCancel, double scheduleNanosPerOp,
+                  double cancelNanosPerOp, long lateP50Ms, long lateP99Ms, long lateMaxMs, long heapBytesPerTimeout) {
+
+        String line() {
+            return String.format("RESULT timeouts=%d cancelled=%d fired=%d firedAfterCancel=%d schedule=%.0fns/op "
+                            + "cancel=%.0fns/op late.p50=%dms late.p99=%dms late.max=%dms heapBytesPerTimeout=%d",
+                    timeouts, cancelled, fired, firedAfterCancel, scheduleNanosPerOp, cancelNanosPerOp, lateP50Ms,
+                    lateP99Ms, lateMaxMs, heapBytesPerTimeout);
+        }
+    }
+
+    static Result run(int timeouts, long windowMs) throws InterruptedException {
+        // Start the worker outside the measurement.
+        WatchTimer.schedule(0, () -> {
+        });
+        long[] dueNanos = new long[timeouts];
+        long[] lateNanos = new long[timeouts];
+        boolean[] cancelled = new boolean[timeouts];
+        AtomicInteger fired = new AtomicInteger();
+        AtomicInteger firedAfterCancel = new AtomicInteger();
+        List<WatchTimer.Timeout> scheduled = new ArrayList<>(timeouts);
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < timeouts; i++) {
+            int n = i;
+            long delayMs = MIN_DELAY_MS + ThreadLocalRandom.current()
+                    .nextLong(windowMs);
+            dueNanos[n] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+            scheduled.add(WatchTimer.schedule(delayMs, () -> {
+                lateNanos[n] = System.nanoTime() - dueNanos[n];
+                if (cancelled[n]) {
+                    firedAfterCancel.incrementAndGet();
+                }
+                fired.incrementAndGet();
+            }));
+        }
+        double scheduleNanos = (double) (System.nanoTime() - start) / timeouts;
+        long heapBytes = Math.max(0, usedHeap() - heapBefore) / timeouts;
+
+        // Every other watch closes early, as most do once the user answers.
+        int cancelCount = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < timeouts; i += 2) {
+            if (scheduled.get(i)
+                    .cancel()) {
+                cancelled[i] = true;
+                cancelCount++;
+            }
+        }
+        double cancelNanos = (double) (System.nanoTime() - start) / (timeouts / 2);
+
+        int expected = timeouts - cancelCount;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MIN_DELAY_MS + windowMs + 30_000);
+        while (fired.get() < expected) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException((expected - fired.get()) + " timeouts never fired");
+            }
+            Thread.sleep(50);
+        }
+        // Give anything that should not fire a few ticks to show up.
+        Thread.sleep(300);
+
+        long[] late = new long[expected];
+        for (int i = 0, j = 0; i < timeouts && j < expected; i++) {
+            if (!cancelled[i]) late[j++] = lateNanos[i];
+        }
+        Arrays.sort(late);
+        return new Result(timeouts, cancelCount, fired.get(), firedAfterCancel.get(), scheduleNanos, cancelNanos,
+                ms(late[late.length / 2]), ms(late[(int) (late.length * 0.99)]), ms(late[late.length - 1]), heapBytes);
+    }
+
+    private static long ms(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int timeouts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long windowMs = args.length > 1 ? Long.parseLong(args[1]) : 3_000;
+        System.out.println(run(timeouts, windowMs).line());
+    }
+}
@@ -0,0 +1,45 @@
+package knemognition.heartauth.spi.status;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatchTimerTest {
+
+    @Test
+    void firesEveryLiveTimeoutOfAHundredThousandAndNoCancelledOne() throws Exception {
+        WatchTimerBenchmark.Result result = WatchTimerBenchmark.run(100_000, 3_000);
+
+        assertEquals(result.timeouts() - result.cancelled(), result.fired(), result::line);
+        assertEquals(0, result.firedAfterCancel(), result::line);
+        // One tick is 100 ms; allow for a slow, shared CI machine on top.
+        assertTrue(result.lateP99Ms() < 1_000, result::line);
+    }
+
+    @Test
+    void cancelAfterFiringReportsFalse() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        WatchTimer.Timeout t = WatchTimer.schedule(0, fired::countDown);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertFalse(t.cancel());
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws Exception {
+        AtomicBoolean ran = new AtomicBoolean();
+        WatchTimer.Timeout t = WatchTimer.schedule(300, () -> ran.set(true));
+        assertTrue(t.cancel());
+
+        CountDownLatch later = new CountDownLatch(1);
+        WatchTimer.schedule(600, later::countDown);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+}